@@ -0,0 +1,99 @@
+/*
+ The MIT License (MIT)
+
+ Copyright (c) 2015 Neofonie GmbH
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in all
+ copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ SOFTWARE.
+ */
+package de.neofonie.deployer;
+
+import io.vertx.core.json.JsonObject;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures how fast large deployer.json files are parsed, and how fast an
+ * unchanged file is served from the cache of the ConfigLoader.
+ *
+ * @author jan.decooman@neofonie.de
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConfigLoaderBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    private int size;
+
+    private Path file;
+
+    private URL url;
+
+    private byte[] content;
+
+    @Setup
+    public void writeConfiguration() throws IOException {
+        JsonObject configuration = Graphs.configuration(Graphs.Shape.RANDOM, size);
+        configuration.put(DeploymentPlan.CONFIG, Graphs.globalConfig(8, 1000));
+        content = configuration.encodePrettily().getBytes("UTF-8");
+        file = Files.createTempFile("deployer", ".json");
+        Files.write(file, content);
+        url = file.toUri().toURL();
+    }
+
+    @TearDown
+    public void deleteConfiguration() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    /**
+     * @return The configuration parsed from the content of the file
+     */
+    @Benchmark
+    public JsonObject parse() throws IOException {
+        return ConfigLoader.ConfigurationCache.parse(content);
+    }
+
+    /**
+     * @return The configuration of the unchanged file from the cache
+     */
+    @Benchmark
+    public JsonObject cached() throws IOException, URISyntaxException {
+        return ConfigLoader.ConfigurationCache.read(url);
+    }
+}
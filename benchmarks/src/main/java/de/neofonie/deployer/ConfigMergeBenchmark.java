@@ -0,0 +1,85 @@
+/*
+ The MIT License (MIT)
+
+ Copyright (c) 2015 Neofonie GmbH
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in all
+ copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ SOFTWARE.
+ */
+package de.neofonie.deployer;
+
+import io.vertx.core.json.JsonObject;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the cost of the configuration of a single verticle with a large
+ * global configuration. The layered merge is compared with the copy Vert.x
+ * makes for every deployed instance.
+ *
+ * @author jan.decooman@neofonie.de
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConfigMergeBenchmark {
+
+    @Param({"10", "1000", "10000"})
+    private int entries;
+
+    private JsonObject globalConfig;
+
+    private JsonObject localConfig;
+
+    @Setup
+    public void createConfig() {
+        globalConfig = Graphs.globalConfig(8, entries);
+        localConfig = new JsonObject()
+                .put("id", "verticle")
+                .put("http", new JsonObject().put("port", 9090));
+    }
+
+    /**
+     * @return The configuration of a verticle as the plan builds it
+     */
+    @Benchmark
+    public JsonObject merge() {
+        return LayeredConfig.merge(globalConfig, localConfig);
+    }
+
+    /**
+     * @return The copy of the configuration for a deployed instance
+     */
+    @Benchmark
+    public JsonObject mergeAndCopy() {
+        return LayeredConfig.merge(globalConfig, localConfig).copy();
+    }
+}
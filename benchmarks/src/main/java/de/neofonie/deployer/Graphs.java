@@ -0,0 +1,118 @@
+/*
+ The MIT License (MIT)
+
+ Copyright (c) 2015 Neofonie GmbH
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in all
+ copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ SOFTWARE.
+ */
+package de.neofonie.deployer;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import java.util.Random;
+
+/**
+ * Generates synthetic deployer configurations for the benchmarks. The
+ * generated graphs are deterministic, so results of different releases can
+ * be compared.
+ *
+ * @author jan.decooman@neofonie.de
+ */
+public final class Graphs {
+
+    private static final long SEED = 42L;
+
+    private static final int MAX_RANDOM_DEPENDENCIES = 3;
+
+    /**
+     * The shape of the dependency graph.
+     */
+    public enum Shape {
+        /**
+         * Every verticle depends on its predecessor.
+         */
+        CHAIN,
+        /**
+         * Every verticle depends on the first one.
+         */
+        FAN,
+        /**
+         * Every verticle depends on up to three random predecessors.
+         */
+        RANDOM
+    }
+
+    private Graphs() {
+    }
+
+    /**
+     * @param shape The shape of the dependency graph
+     * @param size The number of verticles
+     * @return A deployer configuration of no-op verticles
+     */
+    static JsonObject configuration(final Shape shape, final int size) {
+        Random random = new Random(SEED);
+        JsonObject verticles = new JsonObject();
+        for (int i = 0; i < size; i++) {
+            JsonArray dependsOn = new JsonArray();
+            if (i > 0) {
+                switch (shape) {
+                    case CHAIN:
+                        dependsOn.add(id(i - 1));
+                        break;
+                    case FAN:
+                        dependsOn.add(id(0));
+                        break;
+                    default:
+                        int count = 1 + random.nextInt(Math.min(i, MAX_RANDOM_DEPENDENCIES));
+                        for (int j = 0; j < count; j++) {
+                            dependsOn.add(id(random.nextInt(i)));
+                        }
+                }
+            }
+            verticles.put(id(i), new JsonObject()
+                    .put(DeploymentPlan.NAME, NoopVerticle.class.getName())
+                    .put(DeploymentPlan.DEPENDS_ON, dependsOn)
+                    .put(DeploymentPlan.CONFIG, new JsonObject().put("id", id(i))));
+        }
+        return new JsonObject().put(DeploymentPlan.VERTICLES, verticles);
+    }
+
+    /**
+     * @param tables The number of lookup tables
+     * @param entries The number of entries per table
+     * @return A global configuration with large lookup tables
+     */
+    static JsonObject globalConfig(final int tables, final int entries) {
+        JsonObject config = new JsonObject();
+        for (int t = 0; t < tables; t++) {
+            JsonObject table = new JsonObject();
+            for (int e = 0; e < entries; e++) {
+                table.put("key-" + e, "value-" + t + "-" + e);
+            }
+            config.put("table-" + t, table);
+        }
+        config.put("http", new JsonObject().put("host", "localhost").put("port", 8080));
+        return config;
+    }
+
+    private static String id(final int i) {
+        return "verticle-" + i;
+    }
+}
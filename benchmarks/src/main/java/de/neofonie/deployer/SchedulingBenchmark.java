@@ -0,0 +1,147 @@
+/*
+ The MIT License (MIT)
+
+ Copyright (c) 2015 Neofonie GmbH
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in all
+ copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ SOFTWARE.
+ */
+package de.neofonie.deployer;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures how fast the engine schedules synthetic graphs of no-op
+ * verticles, and how fast a configuration compiles into a plan.
+ *
+ * The engine is not thread safe and schedules on the context which calls it,
+ * so every call runs on the same event loop context instead of the
+ * benchmark thread.
+ *
+ * @author jan.decooman@neofonie.de
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SchedulingBenchmark {
+
+    @Param({"10", "100", "1000", "10000"})
+    private int size;
+
+    @Param({"CHAIN", "FAN", "RANDOM"})
+    private Graphs.Shape shape;
+
+    private Vertx vertx;
+
+    private Context context;
+
+    private JsonObject configuration;
+
+    private DeploymentEngine engine;
+
+    @Setup(Level.Trial)
+    public void startVertx() {
+        vertx = Vertx.vertx();
+        context = vertx.getOrCreateContext();
+        configuration = Graphs.configuration(shape, size);
+    }
+
+    @TearDown(Level.Trial)
+    public void closeVertx() {
+        SchedulingBenchmark.<Void>await(handler -> vertx.close(handler));
+    }
+
+    /**
+     * Undeploy the verticles of the last invocation outside of the
+     * measurement.
+     */
+    @TearDown(Level.Invocation)
+    public void undeploy() {
+        if (engine != null) {
+            DeploymentEngine deployed = engine;
+            engine = null;
+            SchedulingBenchmark.<Void>await(handler
+                    -> context.runOnContext(v -> deployed.undeploy(handler)));
+        }
+    }
+
+    /**
+     * @return The compiled plan including the priorities
+     */
+    @Benchmark
+    public DeploymentPlan compile() {
+        return new DeploymentPlan(configuration);
+    }
+
+    /**
+     * @return The ids of the deployed verticles
+     */
+    @Benchmark
+    public List<String> deploy() {
+        engine = new DeploymentEngine(vertx, new DeploymentPlan(configuration));
+        DeploymentEngine deploying = engine;
+        return SchedulingBenchmark.<List<String>>await(handler
+                -> context.runOnContext(v -> deploying.deploy(handler)));
+    }
+
+    private static <T> T await(final AsyncCall<T> call) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        call.run(result -> {
+            if (result.succeeded()) {
+                future.complete(result.result());
+            } else {
+                future.completeExceptionally(result.cause());
+            }
+        });
+        return future.join();
+    }
+
+    /**
+     * An asynchronous call which reports to a handler.
+     *
+     * @param <T> The type of the result
+     */
+    @FunctionalInterface
+    private interface AsyncCall<T> {
+
+        void run(Handler<AsyncResult<T>> handler);
+    }
+}
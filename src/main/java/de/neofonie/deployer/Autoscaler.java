@@ -0,0 +1,346 @@
+/*
+ The MIT License (MIT)
+
+ Copyright (c) 2015 Neofonie GmbH
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in all
+ copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ SOFTWARE.
+ */
+package de.neofonie.deployer;
+
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.SingleThreadEventExecutor;
+import io.vertx.core.Vertx;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Scales the instances of the verticles with "autoscale" settings to their
+ * load. A sampler thread looks at the event loops {@link #SAMPLES} times
+ * per "autoscaleInterval"; a sample showing the class of a verticle counts as
+ * busy time of that verticle. The utilisation of a verticle is its busy time
+ * divided by the time of its instances.
+ *
+ * Every stack sample stops the JVM at a safepoint, so the sampler keeps them
+ * cheap: only the loops which used CPU time since the last round are sampled,
+ * in one batch and only the top {@link #STACK_DEPTH} frames. An idle
+ * application takes no stack samples at all. The time spent sampling is
+ * logged with every interval.
+ *
+ * Vert.x 3.0 has no pending message counts per consumer; event bus messages
+ * wait as tasks of the event loop of their consumer. The tasks waiting on a
+ * loop while a verticle keeps it busy are its backlog.
+ *
+ * An instance is added when the utilisation stays above the "target", or the
+ * average backlog above "maxPending", for "sustain" consecutive intervals, up
+ * to "max". An instance is removed when the remaining instances would still
+ * stay below the target without a backlog for as long, down to "min". The gap
+ * between both thresholds keeps the instances from flapping. The instances
+ * are changed through
+ * {@link DeploymentEngine#scale(String, int, io.vertx.core.Handler)}.
+ *
+ * @author jan.decooman@neofonie.de
+ */
+class Autoscaler {
+
+    private static final Logger LOG = Logger.getLogger(Autoscaler.class.getName());
+
+    /**
+     * The number of stack samples per event loop and interval.
+     */
+    static final int SAMPLES = 20;
+
+    /**
+     * The number of frames of a stack sample, enough to find the verticle
+     * running a handler. Time spent deeper in libraries is not attributed.
+     */
+    static final int STACK_DEPTH = 16;
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private final Vertx vertx;
+
+    private final DeploymentEngine engine;
+
+    private final Map<String, Long> busy = new ConcurrentHashMap<>();
+
+    private final Map<String, Long> pending = new ConcurrentHashMap<>();
+
+    private final AtomicLong rounds = new AtomicLong();
+
+    private final AtomicLong stacks = new AtomicLong();
+
+    private final AtomicLong overhead = new AtomicLong();
+
+    private final Map<String, Integer> above = new HashMap<>();
+
+    private final Map<String, Integer> below = new HashMap<>();
+
+    private final Map<String, Boolean> scaling = new HashMap<>();
+
+    private volatile Map<String, String> classes = new HashMap<>();
+
+    private volatile boolean active = false;
+
+    private Thread sampler = null;
+
+    private long timer = -1;
+
+    /**
+     * @param vertx The Vertx instance
+     * @param engine The engine which deployed the verticles
+     */
+    Autoscaler(final Vertx vertx, final DeploymentEngine engine) {
+        this.vertx = vertx;
+        this.engine = engine;
+    }
+
+    /**
+     * Start sampling when the plan has autoscaled verticles.
+     *
+     * @return true when the autoscaler has been started
+     */
+    boolean start() {
+        DeploymentPlan plan = engine.plan();
+        if (active || plan.ids().stream().noneMatch(plan::autoscaled)) {
+            return active;
+        }
+        active = true;
+        classes = classes(plan);
+        long interval = plan.autoscaleInterval();
+        Map<EventExecutor, Thread> threads = EventLoopProbe.threads(vertx.nettyEventLoopGroup());
+        sampler = new Thread(() -> sample(threads, interval), "deployer-autoscaler");
+        sampler.setDaemon(true);
+        sampler.start();
+        timer = vertx.setPeriodic(interval, tick -> evaluate());
+        LOG.log(Level.INFO, "Autoscaling {0} every {1} ms", new Object[]{classes.values(), interval});
+        return true;
+    }
+
+    /**
+     * Stop sampling and scaling.
+     */
+    void stop() {
+        if (active) {
+            active = false;
+            sampler.interrupt();
+            vertx.cancelTimer(timer);
+        }
+    }
+
+    /**
+     * @param plan The current plan
+     * @return The autoscaled verticles by their class name
+     */
+    private static Map<String, String> classes(final DeploymentPlan plan) {
+        Map<String, String> classes = new HashMap<>();
+        plan.ids().stream().filter(plan::autoscaled).forEach(id -> {
+            String className = ClassPreloader.className(plan.name(id));
+            if (className != null) {
+                classes.put(className, id);
+            }
+        });
+        return classes;
+    }
+
+    /**
+     * @param threads The threads by their event loop, filled while the loops
+     * run their lookup task
+     * @param interval The autoscale interval in milliseconds
+     */
+    private void sample(final Map<EventExecutor, Thread> threads, final long interval) {
+        List<EventExecutor> loops = new ArrayList<>();
+        long[] ids = new long[0];
+        long[] cpu = new long[0];
+        long pause = Math.max(1, TimeUnit.MILLISECONDS.toNanos(interval) / SAMPLES);
+        boolean cpuTime = THREADS.isThreadCpuTimeSupported() && THREADS.isThreadCpuTimeEnabled();
+        while (active) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(pause);
+            } catch (InterruptedException e) {
+                return;
+            }
+            long start = System.nanoTime();
+            if (ids.length != threads.size()) {
+                loops = new ArrayList<>(threads.keySet());
+                ids = loops.stream().mapToLong(loop -> threads.get(loop).getId()).toArray();
+                cpu = new long[ids.length];
+            }
+
+            // a loop which used less than a tenth of the pause is idle
+            long[] busyIds = new long[ids.length];
+            EventExecutor[] busyLoops = new EventExecutor[ids.length];
+            int count = 0;
+            for (int i = 0; i < ids.length; i++) {
+                long used = cpuTime ? THREADS.getThreadCpuTime(ids[i]) : -1;
+                if (used < 0 || used - cpu[i] >= pause / 10) {
+                    busyIds[count] = ids[i];
+                    busyLoops[count++] = loops.get(i);
+                }
+                cpu[i] = used;
+            }
+
+            if (count > 0) {
+                Map<String, String> current = classes;
+                ThreadInfo[] infos = THREADS.getThreadInfo(Arrays.copyOf(busyIds, count), STACK_DEPTH);
+                for (int i = 0; i < count; i++) {
+                    if (infos[i] != null) {
+                        String id = EventLoopProbe.attribute(current, infos[i].getStackTrace());
+                        if (!EventLoopProbe.UNATTRIBUTED.equals(id)) {
+                            busy.merge(id, 1L, Long::sum);
+                            pending.merge(id, (long) pendingTasks(busyLoops[i]), Long::sum);
+                        }
+                    }
+                }
+                stacks.addAndGet(count);
+            }
+            rounds.incrementAndGet();
+            overhead.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * @param loop The event loop
+     * @return The number of tasks waiting on the loop
+     */
+    private static int pendingTasks(final EventExecutor loop) {
+        return loop instanceof SingleThreadEventExecutor ? ((SingleThreadEventExecutor) loop).pendingTasks() : 0;
+    }
+
+    /**
+     * @return The number of stack samples taken so far
+     */
+    long stacks() {
+        return stacks.get();
+    }
+
+    /**
+     * Evaluate the samples taken in the last interval.
+     */
+    private void evaluate() {
+        long samples = rounds.getAndSet(0);
+        LOG.log(Level.FINE, "Sampling took {0} ms of the last {1} ms", new Object[]{
+            String.format("%.2f", overhead.getAndSet(0) / 1e6), engine.plan().autoscaleInterval()});
+        evaluate(samples, drain(busy), drain(pending));
+    }
+
+    /**
+     * @param counters The counters per verticle id, filled by the sampler
+     * @return The counters, which are removed from the map
+     */
+    private static Map<String, Long> drain(final Map<String, Long> counters) {
+        Map<String, Long> drained = new HashMap<>();
+        for (String id : counters.keySet()) {
+            Long count = counters.remove(id);
+            if (count != null) {
+                drained.put(id, count);
+            }
+        }
+        return drained;
+    }
+
+    /**
+     * Compare the utilisation given by the samples of one interval with the
+     * target of every deployed autoscaled verticle.
+     *
+     * @param samples The number of samples per event loop in the interval
+     * @param counts The busy samples per verticle id
+     * @param waiting The sum of the tasks waiting on the loop in the busy
+     * samples per verticle id
+     */
+    void evaluate(final long samples, final Map<String, Long> counts, final Map<String, Long> waiting) {
+        DeploymentPlan plan = engine.plan();
+        classes = classes(plan);
+        classes.values().forEach(id -> {
+            Long count = counts.get(id);
+            Boolean inProgress = scaling.get(id);
+            if (inProgress != null) {
+                // the instances changed during the interval, skip it
+                if (!inProgress) {
+                    scaling.remove(id);
+                }
+                return;
+            }
+            if (!engine.isDeployed(id) || samples == 0) {
+                return;
+            }
+            int current = engine.instances(id);
+            int min = plan.minInstances(id);
+            int max = plan.maxInstances(id);
+            double target = plan.targetUtilisation(id);
+            double utilisation = (count == null ? 0 : count) / (double) (samples * current);
+            double backlog = count == null ? 0 : waiting.getOrDefault(id, 0L) / (double) count;
+            boolean queueing = plan.maxPending(id) > 0 && backlog > plan.maxPending(id);
+            LOG.log(Level.FINE, "''{0}'': {1} instances at {2} utilisation, {3} tasks waiting",
+                    new Object[]{id, current, String.format("%.2f", utilisation), String.format("%.1f", backlog)});
+
+            int high = sustained(above, id, (utilisation > target || queueing) && current < max);
+            int low = sustained(below, id, current > min && !queueing
+                    && utilisation * current / (current - 1) < target);
+            int instances = Math.max(min, Math.min(max, current));
+            if (high >= plan.sustain(id)) {
+                instances = current + 1;
+            } else if (low >= plan.sustain(id)) {
+                instances = current - 1;
+            }
+            if (instances != current) {
+                scale(id, instances, utilisation);
+            }
+        });
+    }
+
+    /**
+     * @param counters The consecutive intervals per verticle
+     * @param id The id of the verticle
+     * @param beyond true when the verticle is beyond the threshold
+     * @return The number of consecutive intervals beyond the threshold
+     */
+    private static int sustained(final Map<String, Integer> counters, final String id, final boolean beyond) {
+        if (beyond) {
+            return counters.merge(id, 1, Integer::sum);
+        }
+        counters.remove(id);
+        return 0;
+    }
+
+    private void scale(final String id, final int instances, final double utilisation) {
+        LOG.log(Level.INFO, "Autoscaling ''{0}'' to {1} instances at {2} utilisation",
+                new Object[]{id, instances, String.format("%.2f", utilisation)});
+        above.remove(id);
+        below.remove(id);
+        scaling.put(id, true);
+        engine.scale(id, instances, scaled -> {
+            scaling.put(id, false);
+            if (scaled.failed()) {
+                LOG.log(Level.WARNING, "Autoscaling ''{0}'' failed: {1}",
+                        new Object[]{id, scaled.cause().getMessage()});
+            }
+        });
+    }
+}
\ No newline at end of file
@@ -0,0 +1,127 @@
+/*
+ The MIT License (MIT)
+
+ Copyright (c) 2015 Neofonie GmbH
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in all
+ copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ SOFTWARE.
+ */
+package de.neofonie.deployer;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Loads and initializes the classes of verticles on a worker thread while
+ * their dependencies are still being deployed. Vert.x loads the class of a
+ * verticle when it is deployed; a class which is already initialized takes
+ * its loading and static initializers off the critical path.
+ *
+ * Only plain Java verticles are preloaded: names with a prefix like "js:" or
+ * a script extension are left to their verticle factory, and verticles with
+ * an "isolationGroup" get their own class loader when they are deployed.
+ *
+ * @author jan.decooman@neofonie.de
+ */
+class ClassPreloader {
+
+    private static final Logger LOG = Logger.getLogger(ClassPreloader.class.getName());
+
+    private static final String JAVA_PREFIX = "java:";
+
+    private static final String ISOLATION_GROUP = "isolationGroup";
+
+    private ClassPreloader() {
+    }
+
+    /**
+     * Preload the classes of the verticles in the given order. The classes are
+     * loaded with the class loader Vert.x uses for the deployment: the
+     * context class loader of the calling thread.
+     *
+     * @param vertx The Vertx instance
+     * @param plan The plan of the verticles
+     * @param ids The verticles to preload, the most urgent first
+     */
+    static void preload(final Vertx vertx, final DeploymentPlan plan, final List<String> ids) {
+        preload(vertx, plan, ids, result -> LOG.log(Level.FINE, "Preloaded {0} verticle classes", result.result()));
+    }
+
+    /**
+     * Preload the classes of the verticles in the given order.
+     *
+     * @param vertx The Vertx instance
+     * @param plan The plan of the verticles
+     * @param ids The verticles to preload, the most urgent first
+     * @param handler Receives the number of loaded classes
+     */
+    static void preload(final Vertx vertx, final DeploymentPlan plan, final List<String> ids,
+            final Handler<AsyncResult<Integer>> handler) {
+        ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+        String[] classNames = ids.stream().
+                filter(id -> plan.definition(id).getString(ISOLATION_GROUP) == null).
+                map(plan::name).
+                map(ClassPreloader::className).
+                filter(className -> className != null).
+                distinct().
+                toArray(String[]::new);
+        if (classNames.length == 0) {
+            handler.handle(Future.succeededFuture(0));
+            return;
+        }
+
+        vertx.<Integer>executeBlocking(future -> {
+            int loaded = 0;
+            for (String className : classNames) {
+                try {
+                    Class.forName(className, true, classLoader);
+                    loaded++;
+                } catch (ClassNotFoundException e) {
+                    // the deployment reports the missing class
+                    LOG.log(Level.FINE, "Preloading {0} failed: {1}", new Object[]{className, e});
+                } catch (LinkageError e) {
+                    // a failed static initializer is not run again by the deployment
+                    LOG.log(Level.WARNING, "Preloading " + className + " failed", e);
+                }
+            }
+            future.complete(loaded);
+        }, false, handler);
+    }
+
+    /**
+     * @param name The name of the verticle
+     * @return The name of the Java class, or null when the verticle is not a
+     * compiled Java class
+     */
+    static String className(final String name) {
+        if (name == null) {
+            return null;
+        }
+        String className = name.startsWith(JAVA_PREFIX) ? name.substring(JAVA_PREFIX.length()) : name;
+        if (className.contains(":") || className.contains("/")
+                || className.matches(".*\\.(js|rb|groovy|py|java|kt|scala|ceylon)$")) {
+            return null;
+        }
+        return className;
+    }
+}
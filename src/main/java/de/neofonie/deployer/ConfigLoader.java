@@ -23,16 +23,25 @@ SOFTWARE.
  */
 package de.neofonie.deployer;
 
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
 import io.vertx.core.json.DecodeException;
 import io.vertx.core.json.JsonObject;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.file.FileSystemAlreadyExistsException;
+import java.nio.file.FileSystemNotFoundException;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -40,6 +49,10 @@ import java.util.logging.Logger;
  * Read the configuration for the deployer. The configuration must be stored in
  * a file called "deployer.json". This file must be available on the classpath.
  *
+ * The parsed configuration is cached by URL and modification time, loading an
+ * unchanged file again only costs a copy. The file systems of jar files are
+ * created once and reused.
+ *
  * @author jan.decooman@neofonie.de, jonas.muecke@neofonie.de
  */
 public class ConfigLoader {
@@ -64,13 +77,7 @@ public class ConfigLoader {
         if (appConf != null) {
             LOG.info("Deployer configuration found");
             try {
-                URI uri = appConf.toURI();
-                initFileSystemIfNeeded(uri);
-
-                byte[] readAllBytes = Files.readAllBytes(Paths.get(appConf.toURI()));
-                result = new JsonObject(new String(readAllBytes, "UTF-8"));
-                LOG.info("Deployer configuration loaded");
-                
+                result = ConfigurationCache.read(appConf);
             } catch (IOException | URISyntaxException | DecodeException e) {
                 LOG.log(Level.SEVERE, "Global application configuration invalid", e);
             }
@@ -80,25 +87,118 @@ public class ConfigLoader {
         return result;
     }
 
+    /**
+     * Load the configuration without blocking the calling event loop. The
+     * file is read on a worker thread, the handler is called on the context
+     * of the caller. When no configuration is found, the result is null. An
+     * invalid configuration fails the result.
+     *
+     * @param vertx The Vertx instance
+     * @param handler The handler receiving the configuration
+     */
+    public static void loadConfiguration(final Vertx vertx, final Handler<AsyncResult<JsonObject>> handler) {
+        vertx.<JsonObject>executeBlocking(future -> {
+            LOG.fine("Looking for the deployer configuration");
+            URL appConf = loadURL();
+
+            if (appConf != null) {
+                LOG.fine("Deployer configuration found");
+                try {
+                    future.complete(ConfigurationCache.read(appConf));
+                } catch (IOException | URISyntaxException | DecodeException e) {
+                    LOG.log(Level.SEVERE, "Global application configuration invalid", e);
+                    future.fail(e);
+                }
+            } else {
+                LOG.info("Global application configuration not found.");
+                future.complete();
+            }
+        }, false, handler);
+    }
+
     protected static URL loadURL() {
         URL appConf = ConfigLoader.class.getResource("/deployer.json");
         return appConf;
     }
 
     /**
-     * Initialize the underlying filesystem.
-     *
-     * @param uri
-     * @throws IOException
+     * The parsed configurations by URL, together with the modification time
+     * of their file.
      */
-    private static void initFileSystemIfNeeded(final URI uri) throws IOException {
-        final String uriAsString = uri.toString();
-        if (uriAsString.contains("!")) {
-            final String[] array = uri.toString().split("!");
-            FileSystems.newFileSystem(URI.create(array[0]), new HashMap<>());
-            LOG.log(Level.INFO, "Initialized filesystem with: {0}", URI.create(array[0]));
-        } else {
-            LOG.log(Level.INFO, "Skip file system initialization with uri: {0}", uriAsString);
+    static class ConfigurationCache {
+
+        private static final Logger LOG
+                = Logger.getLogger(ConfigurationCache.class.getName());
+
+        private static final Map<String, ConfigurationCache> CACHE = new ConcurrentHashMap<>();
+
+        private final long modified;
+
+        private final JsonObject configuration;
+
+        private ConfigurationCache(final long modified, final JsonObject configuration) {
+            this.modified = modified;
+            this.configuration = configuration;
+        }
+
+        /**
+         * Read the configuration from the cache or from the file when it has
+         * been modified.
+         *
+         * @param url The location of the configuration
+         * @return A copy of the configuration
+         * @throws IOException When the file cannot be read
+         * @throws URISyntaxException When the URL is invalid
+         */
+        static JsonObject read(final URL url) throws IOException, URISyntaxException {
+            URI uri = url.toURI();
+            initFileSystemIfNeeded(uri);
+
+            Path path = Paths.get(uri);
+            long modified = Files.getLastModifiedTime(path).toMillis();
+            ConfigurationCache cached = CACHE.get(uri.toString());
+            if (cached == null || cached.modified != modified) {
+                cached = new ConfigurationCache(modified, parse(Files.readAllBytes(path)));
+                CACHE.put(uri.toString(), cached);
+                LOG.fine("Deployer configuration loaded");
+            }
+            return cached.configuration.copy();
+        }
+
+        /**
+         * @param content The content of a configuration file
+         * @return The parsed configuration
+         * @throws IOException When the content is not UTF-8
+         */
+        static JsonObject parse(final byte[] content) throws IOException {
+            return new JsonObject(new String(content, "UTF-8"));
+        }
+
+        /**
+         * Initialize the underlying filesystem. The filesystem of a jar file
+         * is only created once.
+         *
+         * @param uri
+         * @throws IOException
+         */
+        private static void initFileSystemIfNeeded(final URI uri) throws IOException {
+            final String uriAsString = uri.toString();
+            if (uriAsString.contains("!")) {
+                final String[] array = uri.toString().split("!");
+                final URI fileSystem = URI.create(array[0]);
+                try {
+                    FileSystems.getFileSystem(fileSystem);
+                } catch (FileSystemNotFoundException e) {
+                    try {
+                        FileSystems.newFileSystem(fileSystem, new HashMap<>());
+                        LOG.log(Level.INFO, "Initialized filesystem with: {0}", fileSystem);
+                    } catch (FileSystemAlreadyExistsException ex) {
+                        LOG.log(Level.FINE, "Filesystem initialized concurrently: {0}", fileSystem);
+                    }
+                }
+            } else {
+                LOG.log(Level.INFO, "Skip file system initialization with uri: {0}", uriAsString);
+            }
         }
     }
 
@@ -25,16 +25,15 @@ package de.neofonie.deployer;
 
 import io.vertx.core.AbstractVerticle;
 import io.vertx.core.AsyncResult;
-import io.vertx.core.DeploymentOptions;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
-import io.vertx.core.eventbus.Message;
+import io.vertx.core.buffer.Buffer;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Collections;
+import java.util.List;
 import java.util.Set;
-import java.util.concurrent.CountDownLatch;
+import java.util.stream.Collectors;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -45,30 +44,87 @@ import java.util.logging.Logger;
  * chronological order in the configuration and only when the dependencies are
  * satisfied. When a verticle is not deployed, the deployer-verticle exits.
  *
+ * The configuration is compiled once into a {@link DeploymentPlan} which is
+ * executed by a {@link DeploymentEngine}. A verticle is deployed the moment
+ * its last dependency has been deployed.
+ *
+ * When the deployment has finished, a {@link DeploymentReport} with the timing
+ * of every verticle and the critical path is logged and published on the
+ * address {@link #REPORT}. Vert.x publishes to every node of a clustered
+ * event bus which registered the address, so consume it with a
+ * localConsumer to receive the report of this node only. With a "traceFile"
+ * the deployment is also written as a trace which loads in chrome://tracing
+ * or Perfetto. The measured durations are kept in a {@link StartupProfile}
+ * to rank the verticles on the next start.
+ *
+ * Verticles marked as "lazy" are not deployed at startup. A placeholder
+ * consumes their "address" and deploys them with their dependencies when the
+ * first message arrives, see {@link LazyVerticles}.
+ *
+ * With a "reloadInterval" the deployer checks the configuration for changes.
+ * Only the changed verticles and the verticles depending on them are
+ * redeployed, all other verticles keep running.
+ *
+ * Once deployed, the verticles can be listed, scaled, redeployed and
+ * undeployed at runtime through the local address {@link #MANAGEMENT}, see
+ * {@link ManagementApi}.
+ *
+ * Verticles with "autoscale" settings get instances added and removed with
+ * their event loop utilisation by the {@link Autoscaler}.
+ *
+ * The progress of the deployment is published on the address
+ * {@link #PROGRESS}, consume it with a localConsumer like the
+ * {@link #REPORT}. The application is ready for traffic as soon as the
+ * "critical" verticles are deployed, see {@link Readiness}.
+ *
+ * A node role selects its verticles with the "profiles" of the verticles and
+ * the active profiles of {@link Profiles}, only the selected verticles and
+ * their dependencies are part of the plan.
+ *
+ * With the system property {@link #TRAINING} set to true, the classes of the
+ * lazy verticles are loaded as well, so a class list recorded during the run
+ * covers the whole plan. A training run without a deployer.json fails.
+ *
  * You can only initialize one DeployerVerticle at once. Otherwise you will
  * deploy verticles in parallel.
  *
- * The deployer uses a localHandler and does not propagate events across the
- * cluster. You'll notice that localConsumer doesn't accept an AsyncResult
- * handler. The deployment can happen synchronously.
- *
  * @author jan.decooman@neofonie.de, jonas.muecke@neofonie.de
  */
 public class DeployerVerticle extends AbstractVerticle {
 
     private static final Logger LOG = Logger.getLogger(DeployerVerticle.class.getName());
 
-    protected final static String LOOPBACK = "local://" + DeployerVerticle.class.getName();
-
-    protected final static String VERTICLES = "verticles";
+    protected final static String VERTICLES = DeploymentPlan.VERTICLES;
     
-    protected final static String CONFIG = "config";
+    protected final static String CONFIG = DeploymentPlan.CONFIG;
+
+    public final static String REPORT = "local://" + DeployerVerticle.class.getName() + "/report";
+
+    public final static String MANAGEMENT = "local://" + DeployerVerticle.class.getName() + "/management";
+
+    public final static String PROGRESS = "local://" + DeployerVerticle.class.getName() + "/progress";
+
+    public final static String TRAINING = "deployer.training";
 
     protected JsonArray deployed = null;
 
-    private JsonObject workingCopy = null;
+    private DeploymentEngine engine = null;
+
+    private LazyVerticles lazyVerticles = null;
+
+    private ManagementApi managementApi = null;
+
+    private Autoscaler autoscaler = null;
+
+    private Readiness readiness = null;
+
+    private Set<String> activeProfiles = Collections.emptySet();
+
+    private JsonObject configuration = null;
 
-    private JsonObject globalConfig = null;
+    private Long reloadTimer = null;
+
+    private boolean reloading = false;
 
     /**
      * Start the deployer.
@@ -78,130 +134,298 @@ public class DeployerVerticle extends AbstractVerticle {
     @Override
     public void start(final Future<Void> startFuture) {
 
-        // load the deployer.json when available
-        JsonObject configuration = this.loadConfiguration();
+        activeProfiles = Profiles.active();
 
-        if (configuration != null) {
+        // load the deployer.json when available
+        this.loadConfiguration(loaded -> {
+            if (loaded.failed()) {
+                startFuture.fail(loaded.cause());
+            } else if (loaded.result() != null) {
+                deploy(loaded.result(), startFuture);
+            } else if (Boolean.getBoolean(TRAINING)) {
+                startFuture.fail("No deployer.json found on the classpath, nothing to train.");
+            } else {
+                LOG.info("No deployer.json found on the classpath.");
+            }
+        });
+    }
 
-            deployed = new JsonArray();
-            
-            // assign loopback to this handler
-            vertx.eventBus().localConsumer(LOOPBACK, this::deployVerticle);
+    /**
+     * Deploy the verticles of the configuration.
+     *
+     * @param configuration The deployer configuration
+     * @param startFuture The future to complete when all verticles are deployed
+     */
+    private void deploy(final JsonObject configuration, final Future<Void> startFuture) {
 
-            // copy the current verticle configuration
-            workingCopy = configuration.
-                    getJsonObject(VERTICLES, new JsonObject()).
-                    copy();
+        deployed = new JsonArray();
 
-            // set the global configuration
-            globalConfig = configuration.
-                    getJsonObject(CONFIG, new JsonObject());
+        List<String> problems = Profiles.validate(configuration, activeProfiles);
+        if (!problems.isEmpty()) {
+            LOG.log(Level.SEVERE, "Deployment stopped: {0}", problems);
+            startFuture.fail(String.join(", ", problems));
+            return;
+        }
 
-            // start iterations
-            vertx.eventBus().send(LOOPBACK, null, (AsyncResult<Message<Boolean>> event) -> {
-                if (event.succeeded() && event.result().body()) {
+        // rank the verticles with the durations of previous deployments
+        StartupProfile.load(vertx, configuration, loaded -> {
+            StartupProfile profile = loaded.result();
+
+            // compile the dependency graph and execute it
+            engine = new DeploymentEngine(vertx, new DeploymentPlan(
+                    Profiles.prune(configuration, activeProfiles), profile.durations()));
+            lazyVerticles = new LazyVerticles(vertx, engine, this::deployedOnDemand);
+            readiness = new Readiness(vertx, engine, PROGRESS);
+            readiness.start();
+            engine.deploy(event -> {
+                deployed = new JsonArray(engine.deployed());
+                publishReport(engine.report().toJson());
+                writeTrace();
+                if (event.succeeded()) {
                     LOG.log(Level.INFO, "Deployed {0} Verticles: {1}", new Object[]{this.deployed.size(), deployed});
-                    startFuture.complete();
+                    saveProfile(profile);
+                    readiness.deployed();
+                    lazyVerticles.register();
+                    managementApi = new ManagementApi(vertx, MANAGEMENT, engine, this::managed);
+                    autoscaler = new Autoscaler(vertx, engine);
+                    autoscaler.start();
+                    watchConfiguration(configuration, profile);
+                    if (Boolean.getBoolean(TRAINING)) {
+                        train(startFuture);
+                    } else {
+                        startFuture.complete();
+                    }
                 } else {
                     LOG.log(Level.SEVERE, "Deployment stopped: {0}", event.cause().getMessage());
+                    readiness.notReady();
                     startFuture.fail(event.cause());
                 }
             });
-        } else {
-            LOG.info("No deployer.json found on the classpath.");
-        }
+        });
     }
 
     /**
-     * Load the configuration
-     * @return JsonObject with the configuration
+     * Load the classes of the verticles which are not deployed, so the
+     * training run records them as well.
+     *
+     * @param startFuture The future to complete when the classes are loaded
      */
-    protected JsonObject loadConfiguration() {
-        return ConfigLoader.loadConfiguration();
+    private void train(final Future<Void> startFuture) {
+        DeploymentPlan plan = engine.plan();
+        List<String> waiting = plan.ids().stream().
+                filter(id -> !engine.isDeployed(id)).
+                collect(Collectors.toList());
+        ClassPreloader.preload(vertx, plan, waiting, loaded -> {
+            LOG.log(Level.INFO, "Training run loaded {0} classes of verticles which are not deployed", loaded.result());
+            startFuture.complete();
+        });
     }
 
     /**
-     * Stop this verticle.
+     * Check the configuration for changes in the configured interval.
+     *
+     * @param current The deployed configuration
+     * @param profile The startup profile to rank the verticles with
      */
-    @Override
-    public void stop() {
-        // just try to write to the log, when it is still there
-        if (LOG != null) {
-            LOG.log(Level.INFO, "Undeploying {0}", DeployerVerticle.class.getName());
+    private void watchConfiguration(final JsonObject current, final StartupProfile profile) {
+        long interval = engine.plan().reloadInterval();
+        if (interval > 0) {
+            configuration = current;
+            reloadTimer = vertx.setPeriodic(interval, timer -> reloadConfiguration(profile));
         }
     }
 
     /**
-     * Iterate and deploy verticles
+     * Load the configuration and redeploy the verticles affected by a change.
+     * The changed configuration becomes the deployed one once the
+     * redeployment has succeeded. A failed redeployment is rolled back to the
+     * previous plan, so the next reload tries the change again; when that
+     * fails as well, the application is no longer ready.
+     *
+     * @param profile The startup profile to rank the verticles with
      */
-    private void deployVerticle(final Message<JsonObject> event) {
-
-        // iterate over all candidates to be deployed
-        Set<String> candidates = this.workingCopy.fieldNames();
-
-        // detach from underlying json
-        Map<String, JsonObject> initiants = new HashMap<>();
-        candidates.forEach(id -> {
-            JsonObject info = this.workingCopy.getJsonObject(id);
-            JsonArray dependsOn = info.getJsonArray("dependsOn");
-            if (dependsOn != null && deployed.getList().containsAll(dependsOn.getList())
-                    || dependsOn == null || dependsOn.isEmpty()) {
-                initiants.put(id, info);
-            }
-        });
-
-        // remove the initiants
-        initiants.keySet().forEach(id -> this.workingCopy.remove(id));
-
-        // setup latch for the reply
-        CountDownLatch latch = new CountDownLatch(initiants.size());
-        if (initiants.isEmpty()) {
-            event.reply(Boolean.TRUE);
+    private void reloadConfiguration(final StartupProfile profile) {
+        if (reloading) {
             return;
         }
+        reloading = true;
+        this.loadConfiguration(loaded -> {
+            if (loaded.succeeded() && loaded.result() != null && !loaded.result().equals(configuration)) {
+                LOG.info("Deployer configuration changed");
+                JsonObject changed = loaded.result();
+                List<String> problems = Profiles.validate(changed, activeProfiles);
+                if (!problems.isEmpty()) {
+                    LOG.log(Level.SEVERE, "Redeployment stopped: {0}", problems);
+                    reloading = false;
+                    return;
+                }
+                DeploymentPlan previous = engine.plan();
+                engine.redeploy(new DeploymentPlan(
+                        Profiles.prune(changed, activeProfiles), profile.durations()), event -> {
+                    if (event.succeeded()) {
+                        LOG.log(Level.INFO, "Redeployed {0} Verticles: {1}", new Object[]{event.result().size(), event.result()});
+                        configuration = changed;
+                        readiness.deployed();
+                        reloaded();
+                    } else {
+                        LOG.log(Level.SEVERE, "Redeployment stopped: {0}, restoring the previous configuration",
+                                event.cause().getMessage());
+                        engine.redeploy(previous, restored -> {
+                            if (restored.succeeded()) {
+                                LOG.log(Level.INFO, "Restored {0} Verticles: {1}",
+                                        new Object[]{restored.result().size(), restored.result()});
+                            } else {
+                                LOG.log(Level.SEVERE, "Restoring the previous configuration failed: {0}",
+                                        restored.cause().getMessage());
+                                readiness.notReady();
+                            }
+                            reloaded();
+                        });
+                    }
+                });
+            } else {
+                reloading = false;
+            }
+        });
+    }
 
-        // run over all dependencies
-        initiants.forEach((id, info) -> {
-
-            // get the name of the verticle
-            String name = info.getString("name");
-            final JsonObject localConfig = new JsonObject();
-            localConfig.mergeIn(globalConfig);
-            localConfig.mergeIn(info.getJsonObject("config", new JsonObject()));
+    /**
+     * Take over the state of the engine after a reload.
+     */
+    private void reloaded() {
+        reloading = false;
+        deployed = new JsonArray(engine.deployed());
+        lazyVerticles.register();
+        autoscaler.start();
+    }
 
-            Handler<AsyncResult<String>> handler = innerEvent -> {
-                if (innerEvent.succeeded()) {
-                    // add service to deployed-list
-                    deployed.add(id);
+    /**
+     * Keep track of the verticles deployed by a placeholder.
+     *
+     * @param ids The ids of the verticles deployed on demand
+     */
+    private void deployedOnDemand(final List<String> ids) {
+        deployed = new JsonArray(engine.deployed());
+        LOG.log(Level.INFO, "Deployed {0} Verticles on demand: {1}", new Object[]{ids.size(), ids});
+    }
 
-                    // re-emit
-                    vertx.eventBus().send(LOOPBACK, workingCopy, (AsyncResult<Message<Boolean>> recursiveReply) -> {
-                        // always decrease latch
-                        latch.countDown();
+    /**
+     * Keep track of the verticles changed through the {@link #MANAGEMENT}
+     * address. Undeployed lazy verticles get their placeholder back.
+     *
+     * @param ids The ids of the deployed verticles
+     */
+    private void managed(final List<String> ids) {
+        deployed = new JsonArray(ids);
+        lazyVerticles.register();
+    }
 
-                        if (recursiveReply.succeeded() && recursiveReply.result().body()) {
-                            if (latch.getCount() == 0) {
-                                event.reply(recursiveReply.result().body() & Boolean.TRUE);
-                            }
-                        } else {
-                            event.fail(500, this.getFailure(id, recursiveReply));
-                        }
-                    });
+    /**
+     * Log the deployment report and publish it on the {@link #REPORT} address.
+     * Only local consumers of the address keep the report on this node.
+     *
+     * @param report The report of the finished deployment
+     */
+    private void publishReport(final JsonObject report) {
+        LOG.log(Level.INFO, "Deployment took {0} ms, critical path {1} took {2} ms, parallelism {3}",
+                new Object[]{
+                    report.getLong("wallClock") / 1000000,
+                    report.getJsonArray("criticalPath"),
+                    report.getLong("criticalPathLength") / 1000000,
+                    String.format("%.2f", report.getDouble("parallelism"))});
+        LOG.log(Level.FINE, "Deployment report: {0}", report.encode());
+        vertx.eventBus().publish(REPORT, report);
+    }
 
+    /**
+     * Write the deployment as trace events to the "traceFile" of the plan.
+     */
+    private void writeTrace() {
+        String traceFile = engine.plan().traceFile();
+        if (traceFile != null) {
+            Buffer trace = Buffer.buffer(engine.report().toTrace().encode());
+            vertx.fileSystem().writeFile(traceFile, trace, written -> {
+                if (written.failed()) {
+                    LOG.log(Level.WARNING, "Trace not written: {0}", written.cause().getMessage());
                 } else {
-                    event.fail(500, id + " >> " + innerEvent.cause().getMessage());
+                    LOG.log(Level.INFO, "Deployment trace written to {0}", traceFile);
                 }
-            };
+            });
+        }
+    }
 
-            LOG.log(Level.INFO, "Deploying: ''{0}''", new Object[]{id});
-            DeploymentOptions deploymentOptions = new DeploymentOptions(info);
-            vertx.deployVerticle(name, deploymentOptions.setConfig(localConfig), handler);
+    /**
+     * Merge the durations of this deployment into the startup profile and
+     * write it for the next start.
+     *
+     * @param profile The profile used for this deployment
+     */
+    private void saveProfile(final StartupProfile profile) {
+        profile.update(engine.report(), engine.plan());
+        profile.save(vertx, saved -> {
+            if (saved.failed()) {
+                LOG.log(Level.WARNING, "Startup profile not saved: {0}", saved.cause().getMessage());
+            }
         });
     }
 
-    private String getFailure(final String id, final AsyncResult innerEvent) {
-        return "'" + id + "' -> "
-                + ((innerEvent != null && innerEvent.cause() != null)
-                        ? innerEvent.cause().getMessage() : "[nothing]");
+    /**
+     * Undeploy the verticles of the plan in reverse dependency order. This
+     * method can be called from any thread, the undeployment runs on the
+     * context of the deployer.
+     *
+     * @param handler The handler to call when the last verticle has stopped
+     */
+    public void undeployVerticles(final Handler<AsyncResult<Void>> handler) {
+        if (engine == null) {
+            handler.handle(Future.succeededFuture());
+        } else {
+            context.runOnContext(v -> {
+                readiness.notReady();
+                engine.undeploy(handler);
+            });
+        }
+    }
+
+    /**
+     * @return The maximum time in milliseconds to wait for
+     * {@link #undeployVerticles(Handler)}
+     */
+    public long shutdownTimeout() {
+        return engine == null
+                ? DeploymentPlan.DEFAULT_SHUTDOWN_TIMEOUT
+                : engine.plan().shutdownTimeout();
+    }
+
+    /**
+     * Load the configuration without blocking the event loop.
+     * @param handler The handler receiving the configuration, or null when
+     * there is no configuration
+     */
+    protected void loadConfiguration(final Handler<AsyncResult<JsonObject>> handler) {
+        ConfigLoader.loadConfiguration(vertx, handler);
+    }
+
+    /**
+     * Stop this verticle.
+     */
+    @Override
+    public void stop() {
+        if (reloadTimer != null) {
+            vertx.cancelTimer(reloadTimer);
+        }
+        if (managementApi != null) {
+            managementApi.unregister();
+        }
+        if (autoscaler != null) {
+            autoscaler.stop();
+        }
+        if (readiness != null) {
+            readiness.close();
+        }
+        // just try to write to the log, when it is still there
+        if (LOG != null) {
+            LOG.log(Level.INFO, "Undeploying {0}", DeployerVerticle.class.getName());
+        }
     }
 }
@@ -0,0 +1,1083 @@
+/*
+ The MIT License (MIT)
+
+ Copyright (c) 2015 Neofonie GmbH
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in all
+ copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ SOFTWARE.
+ */
+package de.neofonie.deployer;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+/**
+ * Executes a {@link DeploymentPlan}. The engine keeps a counter with the
+ * unresolved dependencies of every verticle and deploys a verticle the moment
+ * the counter drops to zero.
+ *
+ * The scheduling runs as plain callbacks on the context which calls
+ * {@link #deploy(Handler)}; Vert.x calls the completion handler of a
+ * deployment on the context which started it. There are no messages and no
+ * reply timeouts involved, a slow verticle only delays its own dependents.
+ *
+ * Verticles without unresolved dependencies wait in a queue, ordered by the
+ * priority of the plan: the verticle with the longest chain of dependents is
+ * started first. The engine only
+ * starts a verticle when the sum of the weights of the running deployments
+ * stays within the "maxConcurrentDeployments" of the plan. A verticle which is
+ * heavier than the limit is deployed when nothing else is running.
+ *
+ * A failed deployment is retried according to the "retry" settings of the
+ * verticle. When an "optional" verticle fails for good, its dependents are
+ * deployed without it and the run continues. Later runs do not wait for an
+ * abandoned verticle either, unless they deploy it again. A run which ends
+ * with verticles that could never be started fails.
+ *
+ * The first failure of a verticle which is not optional cancels the run: no
+ * further verticle is started, the rollback waits for the deployments which
+ * are still in flight, then the verticles deployed by the run are undeployed
+ * in reverse dependency order. The handler receives the failure once the
+ * rollback has finished.
+ *
+ * While a verticle waits for its dependencies, its class is loaded and
+ * initialized on a worker thread by the {@link ClassPreloader}.
+ *
+ * During a run the {@link EventLoopProbe} samples the event loops. The time a
+ * loop is blocked is attributed to the verticle found on its stack and shows
+ * up as "eventLoopBlocked" in the {@link DeploymentReport}.
+ *
+ * The undeployment runs in the reverse order: a verticle is undeployed when
+ * all its dependents have stopped, independent branches stop in parallel.
+ *
+ * Lazy verticles are left out of {@link #deploy(Handler)}, they are deployed
+ * with their dependencies by {@link #deployOnDemand(String, Handler)}. A
+ * request which arrives while another run is active waits for it.
+ *
+ * A dependent which only needs a "quorum" of the instances of a dependency
+ * is released as soon as that many instances are deployed. The instances of
+ * such a dependency are deployed one by one; the run completes when all
+ * instances are deployed.
+ *
+ * A running deployment can be moved to a new plan with
+ * {@link #redeploy(DeploymentPlan, Handler)}. Only the changed verticles and
+ * the verticles depending on them are undeployed and deployed again. A changed
+ * verticle with "rolling" settings is replaced instance by instance instead,
+ * see {@link #roll(String, Handler)}, and its dependents keep running. When
+ * only its "instances" changed, it is scaled; when only settings of the
+ * deployer changed, it keeps running as it is.
+ *
+ * The engine keeps the Vert.x deployment ids of every verticle. A deployed
+ * verticle can be scaled to a different number of instances, redeployed or
+ * undeployed at runtime; redeploying and undeploying include the verticles
+ * depending on it. These requests wait while a run is active.
+ *
+ * @author jan.decooman@neofonie.de, jonas.muecke@neofonie.de
+ */
+public class DeploymentEngine {
+
+    private static final Logger LOG = Logger.getLogger(DeploymentEngine.class.getName());
+
+    private final Vertx vertx;
+
+    private DeploymentPlan plan;
+
+    private final Map<String, Integer> indegree = new HashMap<>();
+
+    private final Set<String> deployed = new LinkedHashSet<>();
+
+    private final Map<String, List<String>> deploymentIds = new HashMap<>();
+
+    private final Map<String, Integer> instancesUp = new HashMap<>();
+
+    private final Map<String, Integer> instancesOf = new HashMap<>();
+
+    private final PriorityQueue<String> ready;
+
+    private final List<String> completed = new ArrayList<>();
+
+    private final Set<String> runIds = new HashSet<>();
+
+    private final Set<String> abandoned = new HashSet<>();
+
+    private final Queue<Runnable> pending = new ArrayDeque<>();
+
+    private final Map<Long, Runnable> retries = new HashMap<>();
+
+    private Handler<AsyncResult<List<String>>> completionHandler = null;
+
+    private DeploymentReport report = null;
+
+    private EventLoopProbe probe = null;
+
+    private Handler<String> progressHandler = null;
+
+    private int inFlight = 0;
+
+    private int inFlightWeight = 0;
+
+    private boolean failed = false;
+
+    private String failure = null;
+
+    private boolean running = false;
+
+    private boolean stopping = false;
+
+    /**
+     * Create the engine.
+     *
+     * @param vertx The Vertx instance to deploy the verticles with
+     * @param plan The plan to execute
+     */
+    public DeploymentEngine(final Vertx vertx, final DeploymentPlan plan) {
+        this.vertx = vertx;
+        this.plan = plan;
+        this.ready = new PriorityQueue<>(Comparator.
+                comparingLong((String id) -> this.plan.priority(id)).reversed().
+                thenComparingInt(id -> this.plan.index(id)));
+    }
+
+    /**
+     * Deploy all verticles of the plan which are not lazy. The handler is
+     * called once, with the ids of the deployed verticles in the order they
+     * completed or with the first failure. An invalid plan fails before any
+     * verticle is deployed.
+     *
+     * @param handler The handler to call when the deployment has finished
+     */
+    public void deploy(final Handler<AsyncResult<List<String>>> handler) {
+        if (!plan.problems().isEmpty()) {
+            handler.handle(Future.failedFuture("Invalid plan: " + String.join(", ", plan.problems())));
+            return;
+        }
+        deploy(plan.ids().stream().
+                filter(id -> !plan.lazy(id)).
+                collect(Collectors.toList()), handler);
+    }
+
+    /**
+     * Deploy a verticle together with all its dependencies which are not
+     * deployed yet.
+     *
+     * @param id The id of the verticle, usually a lazy one
+     * @param handler The handler receiving the ids of the deployed verticles
+     */
+    public void deployOnDemand(final String id, final Handler<AsyncResult<List<String>>> handler) {
+        if (stopping) {
+            handler.handle(Future.failedFuture("The deployer is stopping"));
+        } else if (running || inFlight > 0) {
+            pending.add(() -> deployOnDemand(id, handler));
+        } else {
+            Set<String> ids = plan.withDependencies(Collections.singleton(id));
+            ids.removeAll(deploymentIds.keySet());
+            LOG.log(Level.INFO, "Deploying on demand: {0}", ids);
+            deploy(ids, handler);
+        }
+    }
+
+    /**
+     * Move the deployment to a new plan. The verticles which are new, removed
+     * or changed in the new plan are undeployed together with all verticles
+     * depending on them, in reverse dependency order. Afterwards the changed
+     * verticles and their dependents are deployed from the new plan. All other
+     * verticles keep running. The redeployment waits while a run is active.
+     *
+     * @param next The new plan
+     * @param handler The handler receiving the ids of the redeployed
+     * verticles
+     */
+    public void redeploy(final DeploymentPlan next, final Handler<AsyncResult<List<String>>> handler) {
+        if (stopping) {
+            handler.handle(Future.failedFuture("The deployer is stopping"));
+            return;
+        }
+        if (running || inFlight > 0) {
+            pending.add(() -> redeploy(next, handler));
+            return;
+        }
+        if (!next.problems().isEmpty()) {
+            handler.handle(Future.failedFuture("Invalid plan: " + String.join(", ", next.problems())));
+            return;
+        }
+
+        Set<String> changed = next.changedSince(plan);
+        Set<String> rolling = changed.stream().
+                filter(id -> next.contains(id) && next.rolling(id) && deployed.contains(id)).
+                collect(Collectors.toCollection(LinkedHashSet::new));
+        changed.removeAll(rolling);
+        Set<String> stale = plan.withDependents(changed);
+        Set<String> fresh = next.withDependents(changed);
+        stale.retainAll(deploymentIds.keySet());
+        fresh.removeIf(id -> next.lazy(id) && !stale.contains(id));
+        rolling.removeAll(stale);
+        rolling.removeAll(fresh);
+        Set<String> restarted = rolling.stream().
+                filter(id -> next.restartedSince(id, plan)).
+                collect(Collectors.toSet());
+        LOG.log(Level.INFO, "Redeploying {0}, rolling out {1}", new Object[]{fresh, restarted});
+
+        running = true;
+        new Undeployment(stale, undeployed -> {
+            plan = next;
+            running = false;
+            deploy(fresh, redeployed -> {
+                if (redeployed.failed() || rolling.isEmpty()) {
+                    handler.handle(redeployed);
+                } else {
+                    roll(new ArrayList<>(rolling), restarted, redeployed.result(), handler);
+                }
+            });
+        }).start();
+    }
+
+    /**
+     * Deploy a set of verticles of the plan. Dependencies outside of the set
+     * must already be deployed.
+     *
+     * @param ids The ids of the verticles to deploy
+     * @param handler The handler to call when the deployment has finished
+     */
+    private void deploy(final Collection<String> ids, final Handler<AsyncResult<List<String>>> handler) {
+        if (running) {
+            throw new IllegalStateException("The plan is already being deployed");
+        }
+        running = true;
+        failed = false;
+        completionHandler = handler;
+        completed.clear();
+        indegree.clear();
+        runIds.clear();
+        runIds.addAll(ids);
+        report = new DeploymentReport(plan);
+
+        ids.forEach(id -> {
+            int count = (int) plan.dependencies(id).stream().
+                    filter(dependency -> !deployed.contains(dependency)
+                            && !(abandoned.contains(dependency) && !ids.contains(dependency))).
+                    count();
+            indegree.put(id, count);
+        });
+        ids.forEach(id -> {
+            if (indegree.get(id) == 0) {
+                enqueue(id);
+            }
+        });
+
+        if (plan.eventLoopProbeInterval() > 0) {
+            Map<String, String> classes = new HashMap<>();
+            ids.forEach(id -> {
+                String className = ClassPreloader.className(plan.name(id));
+                if (className != null) {
+                    classes.put(className, id);
+                }
+            });
+            probe = new EventLoopProbe(vertx, plan.eventLoopProbeInterval(), classes);
+        }
+        if (plan.preloadClasses()) {
+            ClassPreloader.preload(vertx, plan, ids.stream().
+                    filter(id -> indegree.get(id) > 0).
+                    sorted(ready.comparator()).
+                    collect(Collectors.toList()));
+        }
+        schedule();
+        completeIfIdle();
+    }
+
+    /**
+     * Change the number of running instances of a deployed verticle. New
+     * instances are added as a new deployment. Instances are removed
+     * newest deployment first; when only a part of a deployment is removed,
+     * the remaining instances are deployed before it is undeployed. A
+     * verticle cannot drop below the quorum a deployed dependent needs.
+     *
+     * @param id The id of the verticle
+     * @param instances The number of instances, at least one
+     * @param handler The handler receiving the number of running instances
+     */
+    public void scale(final String id, final int instances, final Handler<AsyncResult<Integer>> handler) {
+        if (stopping) {
+            handler.handle(Future.failedFuture("The deployer is stopping"));
+        } else if (running || inFlight > 0) {
+            pending.add(() -> scale(id, instances, handler));
+        } else if (!deployed.contains(id)) {
+            handler.handle(Future.failedFuture("'" + id + "' is not deployed"));
+        } else if (instances < 1) {
+            handler.handle(Future.failedFuture("'" + id + "' needs at least one instance, undeploy it instead"));
+        } else {
+            Optional<String> dependent = plan.dependents(id).stream().
+                    filter(deploymentIds::containsKey).
+                    filter(candidate -> plan.quorum(candidate, id) > instances).
+                    findFirst();
+            int current = instances(id);
+            if (dependent.isPresent()) {
+                handler.handle(Future.failedFuture("'" + dependent.get() + "' needs "
+                        + plan.quorum(dependent.get(), id) + " instances of '" + id + "'"));
+            } else if (instances == current) {
+                handler.handle(Future.succeededFuture(current));
+            } else {
+                LOG.log(Level.INFO, "Scaling ''{0}'' from {1} to {2} instances", new Object[]{id, current, instances});
+                running = true;
+                Handler<AsyncResult<Integer>> scaled = result -> {
+                    running = false;
+                    handler.handle(result);
+                    runPending();
+                };
+                if (instances > current) {
+                    addInstances(id, instances - current, scaled);
+                } else {
+                    removeInstances(id, current - instances, scaled);
+                }
+            }
+        }
+    }
+
+    /**
+     * Replace the running instances of a deployed verticle with the
+     * "instances" of the current plan, "batchSize" instances at a time. A
+     * batch of new instances is deployed before the old instances it replaces
+     * are undeployed, so the number of running instances never drops below
+     * the number of the plan. The
+     * verticles depending on it keep running. When a batch fails, the
+     * rollout stops and the instances replaced so far keep running.
+     *
+     * @param id The id of the verticle
+     * @param handler The handler receiving the number of replaced instances
+     */
+    public void roll(final String id, final Handler<AsyncResult<Integer>> handler) {
+        if (stopping) {
+            handler.handle(Future.failedFuture("The deployer is stopping"));
+        } else if (running || inFlight > 0) {
+            pending.add(() -> roll(id, handler));
+        } else if (!deployed.contains(id)) {
+            handler.handle(Future.failedFuture("'" + id + "' is not deployed"));
+        } else {
+            running = true;
+            new Rollout(id, result -> {
+                running = false;
+                handler.handle(result);
+                runPending();
+            }).next();
+        }
+    }
+
+    /**
+     * Move the changed rolling verticles to the plan one after the other.
+     * A verticle whose instances must be replaced is rolled out, a verticle
+     * whose "instances" changed is scaled, any other verticle keeps running.
+     *
+     * @param ids The ids of the verticles still to move
+     * @param restarted The ids of the verticles to roll out
+     * @param rolled The ids of the verticles moved so far
+     * @param handler The handler receiving all ids once the last verticle
+     * has been moved
+     */
+    private void roll(final List<String> ids, final Set<String> restarted, final List<String> rolled,
+            final Handler<AsyncResult<List<String>>> handler) {
+        if (ids.isEmpty()) {
+            handler.handle(Future.succeededFuture(rolled));
+            return;
+        }
+        String id = ids.remove(0);
+        Handler<AsyncResult<Integer>> next = result -> {
+            if (result.failed()) {
+                handler.handle(Future.failedFuture(id + " >> " + result.cause().getMessage()));
+            } else {
+                rolled.add(id);
+                roll(ids, restarted, rolled, handler);
+            }
+        };
+        if (restarted.contains(id)) {
+            roll(id, next);
+        } else if (instances(id) != plan.instances(id)) {
+            scale(id, plan.instances(id), next);
+        } else {
+            roll(ids, restarted, rolled, handler);
+        }
+    }
+
+    /**
+     * Undeploy a verticle with the verticles depending on it and deploy them
+     * again from the plan, with the configured number of instances.
+     *
+     * @param id The id of the verticle
+     * @param handler The handler receiving the ids of the redeployed
+     * verticles
+     */
+    public void redeploy(final String id, final Handler<AsyncResult<List<String>>> handler) {
+        if (stopping) {
+            handler.handle(Future.failedFuture("The deployer is stopping"));
+        } else if (running || inFlight > 0) {
+            pending.add(() -> redeploy(id, handler));
+        } else if (!deploymentIds.containsKey(id)) {
+            handler.handle(Future.failedFuture("'" + id + "' is not deployed"));
+        } else {
+            Set<String> stale = plan.withDependents(Collections.singleton(id));
+            stale.retainAll(deploymentIds.keySet());
+            LOG.log(Level.INFO, "Redeploying {0}", stale);
+            running = true;
+            new Undeployment(stale, undeployed -> {
+                running = false;
+                deploy(stale, handler);
+            }).start();
+        }
+    }
+
+    /**
+     * Undeploy a verticle with the verticles depending on it, in reverse
+     * dependency order.
+     *
+     * @param id The id of the verticle
+     * @param handler The handler receiving the ids of the undeployed
+     * verticles
+     */
+    public void undeploy(final String id, final Handler<AsyncResult<List<String>>> handler) {
+        if (stopping) {
+            handler.handle(Future.failedFuture("The deployer is stopping"));
+        } else if (running || inFlight > 0) {
+            pending.add(() -> undeploy(id, handler));
+        } else if (!deploymentIds.containsKey(id)) {
+            handler.handle(Future.failedFuture("'" + id + "' is not deployed"));
+        } else {
+            Set<String> stale = plan.withDependents(Collections.singleton(id));
+            stale.retainAll(deploymentIds.keySet());
+            running = true;
+            new Undeployment(stale, undeployed -> {
+                running = false;
+                handler.handle(Future.succeededFuture(new ArrayList<>(stale)));
+                runPending();
+            }).start();
+        }
+    }
+
+    /**
+     * Undeploy all deployed verticles in reverse dependency order. No new
+     * verticles are deployed once the undeployment has started. A verticle
+     * which does not stop within its stop timeout no longer blocks its
+     * dependencies.
+     *
+     * @param handler The handler to call when the last verticle has stopped
+     */
+    public void undeploy(final Handler<AsyncResult<Void>> handler) {
+        stopping = true;
+        cancelRetries();
+        while (!pending.isEmpty()) {
+            pending.poll().run();
+        }
+        new Undeployment(new HashSet<>(deploymentIds.keySet()), handler).start();
+    }
+
+    /**
+     * @return The plan executed by this engine
+     */
+    public DeploymentPlan plan() {
+        return plan;
+    }
+
+    /**
+     * @return The timing of the deployment, or null before
+     * {@link #deploy(Handler)}
+     */
+    public DeploymentReport report() {
+        return report;
+    }
+
+    /**
+     * @return The ids of the verticles deployed so far
+     */
+    public List<String> deployed() {
+        return new ArrayList<>(deployed);
+    }
+
+    /**
+     * @param progressHandler Receives the id of every verticle which has
+     * been deployed completely or given up as optional
+     */
+    public void progressHandler(final Handler<String> progressHandler) {
+        this.progressHandler = progressHandler;
+    }
+
+    /**
+     * @param id The id of the verticle
+     * @return true when the optional verticle failed and its dependents do
+     * not wait for it
+     */
+    public boolean isAbandoned(final String id) {
+        return abandoned.contains(id);
+    }
+
+    /**
+     * @param id The id of the verticle
+     * @return The Vert.x deployment ids of the verticle, each one holds one
+     * or more instances
+     */
+    public List<String> deploymentIds(final String id) {
+        return new ArrayList<>(deploymentIds.getOrDefault(id, Collections.emptyList()));
+    }
+
+    /**
+     * @param id The id of the verticle
+     * @return The number of running instances of the verticle
+     */
+    public int instances(final String id) {
+        return instancesUp.getOrDefault(id, 0);
+    }
+
+    /**
+     * @param id The id of the verticle
+     * @return true when all instances of the verticle are deployed
+     */
+    public boolean isDeployed(final String id) {
+        return deployed.contains(id);
+    }
+
+    /**
+     * Add a verticle without unresolved dependencies to the queue.
+     *
+     * @param id The id of the verticle
+     */
+    private void enqueue(final String id) {
+        report.queued(id);
+        ready.add(id);
+    }
+
+    /**
+     * Start queued verticles as long as their weight fits into the limit.
+     */
+    private void schedule() {
+        int limit = plan.maxConcurrentDeployments();
+        while (!ready.isEmpty() && !failed && !stopping
+                && (inFlight == 0 || inFlightWeight + plan.weight(ready.peek()) <= limit)) {
+            deployVerticle(ready.poll());
+        }
+    }
+
+    /**
+     * Deploy a single verticle and schedule its dependents when it succeeds.
+     * The instances are deployed one by one when a dependent only needs a
+     * quorum of them.
+     *
+     * @param id The id of the verticle
+     */
+    private void deployVerticle(final String id) {
+        LOG.log(Level.INFO, "Deploying: ''{0}''", new Object[]{id});
+        int instances = plan.instances(id);
+        int calls = plan.deployInstancesIndividually(id) ? instances : 1;
+        int[] outstanding = {calls};
+        int weight = plan.weight(id);
+        inFlight += calls;
+        inFlightWeight += weight;
+        report.started(id);
+        instancesUp.put(id, 0);
+        abandoned.remove(id);
+
+        DeploymentOptions deploymentOptions = new DeploymentOptions(plan.definition(id)).
+                setConfig(plan.config(id)).
+                setInstances(instances / calls);
+        for (int call = 0; call < calls; call++) {
+            deployInstances(id, deploymentOptions, 1, result -> {
+                inFlight--;
+                if (--outstanding[0] == 0) {
+                    inFlightWeight -= weight;
+                }
+                if (failed) {
+                    returnedAfterFailure(id, instances / calls, result);
+                } else if (result.succeeded()) {
+                    deploymentIds.computeIfAbsent(id, key -> new ArrayList<>()).add(result.result());
+                    instancesOf.put(result.result(), instances / calls);
+                    if (!abandoned.contains(id)) {
+                        instancesDeployed(id, instances / calls);
+                    }
+                    schedule();
+                    completeIfIdle();
+                } else if (plan.optional(id)) {
+                    abandon(id, result.cause().getMessage());
+                } else {
+                    fail(id + " >> " + result.cause().getMessage());
+                }
+            });
+        }
+    }
+
+    /**
+     * Deploy the instances of a verticle and retry a failed attempt with the
+     * backoff of the plan. No retry is made once the run is cancelled, a
+     * waiting retry then gives up with the failure of the last attempt.
+     *
+     * @param id The id of the verticle
+     * @param deploymentOptions The options of the deployment
+     * @param attempt The number of the attempt, starting with 1
+     * @param handler The handler receiving the result of the last attempt
+     */
+    private void deployInstances(final String id, final DeploymentOptions deploymentOptions, final int attempt,
+            final Handler<AsyncResult<String>> handler) {
+        vertx.deployVerticle(plan.name(id), deploymentOptions, result -> {
+            if (result.failed() && !failed && !stopping && attempt < plan.maxAttempts(id)) {
+                long delay = plan.retryDelay(id, attempt);
+                LOG.log(Level.WARNING, "Attempt {0} of ''{1}'' failed, retrying in {2} ms: {3}",
+                        new Object[]{attempt, id, delay, result.cause().getMessage()});
+                long timer = vertx.setTimer(delay, fired -> {
+                    retries.remove(fired);
+                    if (failed || stopping) {
+                        handler.handle(result);
+                    } else {
+                        deployInstances(id, deploymentOptions, attempt + 1, handler);
+                    }
+                });
+                retries.put(timer, () -> handler.handle(result));
+            } else {
+                handler.handle(result);
+            }
+        });
+    }
+
+    /**
+     * Add instances of a deployed verticle as a new deployment.
+     *
+     * @param id The id of the verticle
+     * @param count The number of instances to add
+     * @param handler The handler receiving the number of running instances
+     */
+    private void addInstances(final String id, final int count, final Handler<AsyncResult<Integer>> handler) {
+        DeploymentOptions deploymentOptions = new DeploymentOptions(plan.definition(id)).
+                setConfig(plan.config(id)).
+                setInstances(count);
+        vertx.deployVerticle(plan.name(id), deploymentOptions, result -> {
+            if (result.failed()) {
+                handler.handle(Future.failedFuture(result.cause()));
+            } else if (stopping) {
+                cancelled(id, result);
+                handler.handle(Future.failedFuture("The deployer is stopping"));
+            } else {
+                deploymentIds.get(id).add(result.result());
+                instancesOf.put(result.result(), count);
+                handler.handle(Future.succeededFuture(instancesUp.merge(id, count, Integer::sum)));
+            }
+        });
+    }
+
+    /**
+     * Remove instances of a deployed verticle, newest deployment first.
+     *
+     * @param id The id of the verticle
+     * @param count The number of instances to remove
+     * @param handler The handler receiving the number of running instances
+     */
+    private void removeInstances(final String id, final int count, final Handler<AsyncResult<Integer>> handler) {
+        List<String> ids = deploymentIds.get(id);
+        List<String> removed = new ArrayList<>();
+        int remaining = count;
+        for (int i = ids.size() - 1; i >= 0 && remaining > 0; i--) {
+            removed.add(ids.get(i));
+            remaining -= instancesOf.get(ids.get(i));
+        }
+
+        Handler<AsyncResult<Integer>> undeploy = replaced -> {
+            if (replaced.failed()) {
+                handler.handle(replaced);
+            } else {
+                undeployInstances(id, removed, handler);
+            }
+        };
+        if (remaining < 0) {
+            // the oldest removed deployment holds more instances than needed
+            addInstances(id, -remaining, undeploy);
+        } else {
+            undeploy.handle(Future.succeededFuture());
+        }
+    }
+
+    /**
+     * Undeploy some deployments of a verticle.
+     *
+     * @param id The id of the verticle
+     * @param removed The deployment ids to undeploy
+     * @param handler The handler receiving the number of running instances
+     */
+    private void undeployInstances(final String id, final List<String> removed,
+            final Handler<AsyncResult<Integer>> handler) {
+        if (removed.isEmpty()) {
+            handler.handle(Future.succeededFuture(instances(id)));
+            return;
+        }
+        int[] outstanding = {removed.size()};
+        removed.forEach(deploymentId -> vertx.undeploy(deploymentId, result -> {
+            if (result.failed()) {
+                LOG.log(Level.WARNING, "Undeploying ''{0}'' failed: {1}",
+                        new Object[]{id, result.cause().getMessage()});
+            }
+            deploymentIds.get(id).remove(deploymentId);
+            instancesUp.merge(id, -instancesOf.remove(deploymentId), Integer::sum);
+            if (--outstanding[0] == 0) {
+                handler.handle(Future.succeededFuture(instances(id)));
+            }
+        }));
+    }
+
+    /**
+     * Give up an optional verticle. Its dependents no longer wait for it.
+     *
+     * @param id The id of the optional verticle
+     * @param message The failure
+     */
+    private void abandon(final String id, final String message) {
+        if (abandoned.add(id)) {
+            LOG.log(Level.WARNING, "Optional verticle ''{0}'' not deployed: {1}", new Object[]{id, message});
+            int up = instancesUp.getOrDefault(id, 0);
+            plan.dependents(id).forEach(dependent -> {
+                if (up < plan.quorum(dependent, id)
+                        && indegree.containsKey(dependent)
+                        && indegree.merge(dependent, -1, Integer::sum) == 0) {
+                    enqueue(dependent);
+                }
+            });
+            if (progressHandler != null) {
+                progressHandler.handle(id);
+            }
+        }
+        schedule();
+        completeIfIdle();
+    }
+
+    /**
+     * Release the dependents whose quorum has been reached by the newly
+     * deployed instances. The verticle is deployed with its last instance.
+     *
+     * @param id The id of the verticle
+     * @param count The number of newly deployed instances
+     */
+    private void instancesDeployed(final String id, final int count) {
+        int before = instancesUp.getOrDefault(id, 0);
+        int after = instancesUp.merge(id, count, Integer::sum);
+        report.instancesDeployed(id, count);
+        if (after == plan.instances(id)) {
+            deployed.add(id);
+            completed.add(id);
+            report.completed(id);
+        }
+        plan.dependents(id).forEach(dependent -> {
+            int quorum = plan.quorum(dependent, id);
+            if (before < quorum && quorum <= after
+                    && indegree.containsKey(dependent)
+                    && indegree.merge(dependent, -1, Integer::sum) == 0) {
+                enqueue(dependent);
+            }
+        });
+        if (after == plan.instances(id) && progressHandler != null) {
+            progressHandler.handle(id);
+        }
+    }
+
+    /**
+     * Report the success when no deployment is running anymore. A run which
+     * leaves verticles behind whose dependencies never became available fails
+     * instead.
+     */
+    private void completeIfIdle() {
+        if (inFlight == 0 && !failed && running) {
+            List<String> stuck = runIds.stream().
+                    filter(id -> !deployed.contains(id) && !abandoned.contains(id) && !ready.contains(id)).
+                    collect(Collectors.toList());
+            if (!stuck.isEmpty()) {
+                fail("Dependencies never deployed: " + stuck);
+                return;
+            }
+            running = false;
+            stopProbe();
+            completionHandler.handle(Future.succeededFuture(new ArrayList<>(completed)));
+        }
+        runPending();
+    }
+
+    /**
+     * Stop probing the event loops and add the blocked time to the report.
+     */
+    private void stopProbe() {
+        if (probe != null) {
+            report.eventLoopBlocked(probe.stop());
+            probe = null;
+        }
+    }
+
+    /**
+     * Cancel the run on the first failure and roll back the verticles it has
+     * deployed. The rollback waits for the deployments still in flight, so
+     * that the instances they deploy are rolled back as well. The failure is
+     * reported when the rollback has finished.
+     *
+     * @param message The failure
+     */
+    private void fail(final String message) {
+        failed = true;
+        failure = message;
+        ready.clear();
+        LOG.log(Level.SEVERE, "Deployment failed: {0}, waiting for {1} deployments in flight",
+                new Object[]{message, inFlight});
+        cancelRetries();
+        rollbackIfIdle();
+    }
+
+    /**
+     * A deployment of the run returned after the failure. Deployed instances
+     * are kept for the rollback.
+     *
+     * @param id The id of the verticle
+     * @param instances The number of instances of the deployment
+     * @param result The result of the deployment
+     */
+    private void returnedAfterFailure(final String id, final int instances, final AsyncResult<String> result) {
+        if (result.succeeded()) {
+            deploymentIds.computeIfAbsent(id, key -> new ArrayList<>()).add(result.result());
+            instancesOf.put(result.result(), instances);
+        } else {
+            LOG.log(Level.SEVERE, "Deployment failed: {0} >> {1}",
+                    new Object[]{id, result.cause().getMessage()});
+        }
+        rollbackIfIdle();
+    }
+
+    /**
+     * Roll back the failed run once no deployment is in flight anymore.
+     */
+    private void rollbackIfIdle() {
+        if (failure == null || inFlight > 0) {
+            return;
+        }
+        String message = failure;
+        failure = null;
+        Set<String> rollback = new HashSet<>(runIds);
+        rollback.retainAll(deploymentIds.keySet());
+        LOG.log(Level.SEVERE, "Rolling back {0}", rollback);
+
+        new Undeployment(rollback, undeployed -> {
+            running = false;
+            stopProbe();
+            completionHandler.handle(Future.failedFuture(message));
+            runPending();
+        }).start();
+    }
+
+    /**
+     * Cancel the waiting retries, their verticles give up with the failure of
+     * their last attempt.
+     */
+    private void cancelRetries() {
+        List<Map.Entry<Long, Runnable>> waiting = new ArrayList<>(retries.entrySet());
+        retries.clear();
+        waiting.forEach(retry -> {
+            if (vertx.cancelTimer(retry.getKey())) {
+                retry.getValue().run();
+            }
+        });
+    }
+
+    /**
+     * A deployment returned after the run has been cancelled. A deployed
+     * instance is undeployed right away.
+     *
+     * @param id The id of the verticle
+     * @param result The result of the deployment
+     */
+    private void cancelled(final String id, final AsyncResult<String> result) {
+        if (result.succeeded()) {
+            LOG.log(Level.INFO, "Undeploying cancelled: ''{0}''", id);
+            vertx.undeploy(result.result(), undeployed -> {
+                if (undeployed.failed()) {
+                    LOG.log(Level.WARNING, "Undeploying ''{0}'' failed: {1}",
+                            new Object[]{id, undeployed.cause().getMessage()});
+                }
+            });
+        } else {
+            LOG.log(Level.SEVERE, "Deployment failed: {0} >> {1}",
+                    new Object[]{id, result.cause().getMessage()});
+        }
+        runPending();
+    }
+
+    /**
+     * Start the next waiting run once the previous run has finished and its
+     * last deployment has returned.
+     */
+    private void runPending() {
+        if (!running && inFlight == 0 && !pending.isEmpty()) {
+            pending.poll().run();
+        }
+    }
+
+    /**
+     * The replacement of the instances of a verticle in batches. Old
+     * deployments are undeployed oldest first, as soon as the new instances
+     * outnumber them. Old deployments beyond the instances of the plan are
+     * undeployed with the last batch.
+     */
+    private class Rollout {
+
+        private final String id;
+
+        private final Queue<String> old;
+
+        private final int total;
+
+        private final Handler<AsyncResult<Integer>> handler;
+
+        private int replaced = 0;
+
+        private int surplus = 0;
+
+        private Rollout(final String id, final Handler<AsyncResult<Integer>> handler) {
+            this.id = id;
+            this.old = new ArrayDeque<>(deploymentIds.get(id));
+            this.total = plan.instances(id);
+            this.handler = handler;
+            LOG.log(Level.INFO, "Rolling out {0} instances of ''{1}''", new Object[]{total, id});
+        }
+
+        private void next() {
+            if (stopping) {
+                handler.handle(Future.failedFuture("The deployer is stopping"));
+                return;
+            }
+            int batch = Math.min(plan.batchSize(id), total - replaced);
+            addInstances(id, batch, added -> {
+                if (added.failed()) {
+                    LOG.log(Level.SEVERE, "Rolling out ''{0}'' stopped after {1} instances: {2}",
+                            new Object[]{id, replaced, added.cause().getMessage()});
+                    handler.handle(Future.failedFuture(added.cause()));
+                    return;
+                }
+                replaced += batch;
+                surplus += batch;
+                List<String> retired = new ArrayList<>();
+                while (!old.isEmpty() && (replaced == total || instancesOf.get(old.peek()) <= surplus)) {
+                    surplus -= instancesOf.get(old.peek());
+                    retired.add(old.poll());
+                }
+                undeployInstances(id, retired, undeployed -> {
+                    if (replaced == total) {
+                        LOG.log(Level.INFO, "Rolled out ''{0}''", id);
+                        handler.handle(Future.succeededFuture(replaced));
+                    } else if (plan.rollingPause(id) > 0) {
+                        vertx.setTimer(plan.rollingPause(id), timer -> next());
+                    } else {
+                        next();
+                    }
+                });
+            });
+        }
+    }
+
+    /**
+     * A single run of the undeployment. Every verticle of the run gets a
+     * counter with its deployed dependents within the run; a verticle is
+     * undeployed when the counter drops to zero.
+     */
+    private class Undeployment {
+
+        private final Set<String> ids;
+
+        private final Handler<AsyncResult<Void>> handler;
+
+        private final Map<String, Integer> blocking = new HashMap<>();
+
+        private Undeployment(final Set<String> ids, final Handler<AsyncResult<Void>> handler) {
+            this.ids = ids;
+            this.handler = handler;
+        }
+
+        private void start() {
+            List<String> ready = new ArrayList<>();
+            ids.forEach(id -> {
+                int count = (int) plan.dependents(id).stream().
+                        filter(dependent -> ids.contains(dependent) && deploymentIds.containsKey(dependent)).
+                        count();
+                blocking.put(id, count);
+                if (count == 0) {
+                    ready.add(id);
+                }
+            });
+
+            if (blocking.isEmpty()) {
+                handler.handle(Future.succeededFuture());
+            } else {
+                ready.forEach(this::undeployVerticle);
+            }
+        }
+
+        private void undeployVerticle(final String id) {
+            LOG.log(Level.INFO, "Undeploying: ''{0}''", new Object[]{id});
+
+            long timer = vertx.setTimer(plan.stopTimeout(id), timeout -> {
+                LOG.log(Level.WARNING, "''{0}'' did not stop within {1} ms",
+                        new Object[]{id, plan.stopTimeout(id)});
+                stopped(id);
+            });
+
+            List<String> instances = deploymentIds.get(id);
+            int[] outstanding = {instances.size()};
+            instances.forEach(deploymentId -> vertx.undeploy(deploymentId, result -> {
+                if (result.failed()) {
+                    LOG.log(Level.WARNING, "Undeploying ''{0}'' failed: {1}",
+                            new Object[]{id, result.cause().getMessage()});
+                }
+                if (--outstanding[0] == 0 && vertx.cancelTimer(timer)) {
+                    stopped(id);
+                }
+            }));
+        }
+
+        private void stopped(final String id) {
+            blocking.remove(id);
+            deploymentIds.getOrDefault(id, Collections.emptyList()).forEach(instancesOf::remove);
+            deploymentIds.remove(id);
+            instancesUp.remove(id);
+            deployed.remove(id);
+            abandoned.remove(id);
+
+            plan.dependencies(id).forEach(dependency -> {
+                if (blocking.containsKey(dependency)
+                        && blocking.merge(dependency, -1, Integer::sum) == 0) {
+                    undeployVerticle(dependency);
+                }
+            });
+
+            if (blocking.isEmpty()) {
+                handler.handle(Future.succeededFuture());
+            }
+        }
+    }
+}
@@ -0,0 +1,1089 @@
+/*
+ The MIT License (MIT)
+
+ Copyright (c) 2015 Neofonie GmbH
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in all
+ copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ SOFTWARE.
+ */
+package de.neofonie.deployer;
+
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+/**
+ * The compiled form of a deployer configuration. The plan contains the
+ * verticle definitions, the dependencies of every verticle and the reverse
+ * edges: the verticles depending on a verticle. The plan is immutable and can
+ * be executed more than once by a {@link DeploymentEngine}.
+ *
+ * The plan is validated when it is compiled: a plan with {@link #problems()}
+ * is not deployed at all. Use {@link #validate(JsonObject)} to check a
+ * configuration without Vert.x.
+ *
+ * @author jan.decooman@neofonie.de, jonas.muecke@neofonie.de
+ */
+public class DeploymentPlan {
+
+    private static final Logger LOG = Logger.getLogger(DeploymentPlan.class.getName());
+
+    protected final static String VERTICLES = "verticles";
+
+    protected final static String CONFIG = "config";
+
+    protected final static String DEPENDS_ON = "dependsOn";
+
+    protected final static String NAME = "name";
+
+    protected final static String STOP_TIMEOUT = "stopTimeout";
+
+    protected final static String SHUTDOWN_TIMEOUT = "shutdownTimeout";
+
+    protected final static String MAX_CONCURRENT_DEPLOYMENTS = "maxConcurrentDeployments";
+
+    protected final static String WEIGHT = "weight";
+
+    protected final static String START_DURATION = "startDuration";
+
+    protected final static String AUTO = "auto";
+
+    protected final static String RELOAD_INTERVAL = "reloadInterval";
+
+    protected final static String LAZY = "lazy";
+
+    protected final static String ADDRESS = "address";
+
+    protected final static String INSTANCES = "instances";
+
+    protected final static String ID = "id";
+
+    protected final static String QUORUM = "quorum";
+
+    protected final static String OPTIONAL = "optional";
+
+    protected final static String RETRY = "retry";
+
+    protected final static String MAX_ATTEMPTS = "maxAttempts";
+
+    protected final static String DELAY = "delay";
+
+    protected final static String MULTIPLIER = "multiplier";
+
+    protected final static String MAX_DELAY = "maxDelay";
+
+    protected final static String JITTER = "jitter";
+
+    protected final static long DEFAULT_RETRY_DELAY = 1000;
+
+    protected final static double DEFAULT_MULTIPLIER = 2.0;
+
+    protected final static long DEFAULT_MAX_DELAY = 30000;
+
+    protected final static double DEFAULT_JITTER = 0.2;
+
+    protected final static String PRELOAD_CLASSES = "preloadClasses";
+
+    protected final static String TRACE_FILE = "traceFile";
+
+    protected final static String EVENT_LOOP_PROBE_INTERVAL = "eventLoopProbeInterval";
+
+    protected final static long DEFAULT_EVENT_LOOP_PROBE_INTERVAL = 20;
+
+    protected final static String AUTOSCALE = "autoscale";
+
+    protected final static String MIN = "min";
+
+    protected final static String MAX = "max";
+
+    protected final static String TARGET = "target";
+
+    protected final static String SUSTAIN = "sustain";
+
+    protected final static String MAX_PENDING = "maxPending";
+
+    protected final static String AUTOSCALE_INTERVAL = "autoscaleInterval";
+
+    protected final static long DEFAULT_AUTOSCALE_INTERVAL = 1000;
+
+    protected final static double DEFAULT_TARGET = 0.75;
+
+    protected final static int DEFAULT_SUSTAIN = 3;
+
+    protected final static String ROLLING = "rolling";
+
+    protected final static String BATCH_SIZE = "batchSize";
+
+    protected final static String PAUSE = "pause";
+
+    protected final static String CRITICAL = "critical";
+
+    protected final static String READY_FILE = "readyFile";
+
+    protected final static String READINESS_PORT = "readinessPort";
+
+    protected final static long DEFAULT_STOP_TIMEOUT = 5000;
+
+    protected final static long DEFAULT_SHUTDOWN_TIMEOUT = 30000;
+
+    private static final Map<String, Class<?>> GLOBAL_TYPES = types(
+            VERTICLES, JsonObject.class,
+            CONFIG, JsonObject.class,
+            STOP_TIMEOUT, Number.class,
+            SHUTDOWN_TIMEOUT, Number.class,
+            RELOAD_INTERVAL, Number.class,
+            PRELOAD_CLASSES, Boolean.class,
+            TRACE_FILE, String.class,
+            EVENT_LOOP_PROBE_INTERVAL, Number.class,
+            AUTOSCALE_INTERVAL, Number.class,
+            READY_FILE, String.class,
+            READINESS_PORT, Number.class,
+            StartupProfile.STARTUP_PROFILE, JsonObject.class);
+
+    private static final Map<String, Class<?>> STARTUP_PROFILE_TYPES = types(
+            StartupProfile.DIRECTORY, String.class,
+            StartupProfile.SMOOTHING, Number.class);
+
+    private static final Map<String, Class<?>> VERTICLE_TYPES = types(
+            NAME, String.class,
+            CONFIG, JsonObject.class,
+            DEPENDS_ON, JsonArray.class,
+            INSTANCES, Number.class,
+            WEIGHT, Number.class,
+            START_DURATION, Number.class,
+            STOP_TIMEOUT, Number.class,
+            LAZY, Boolean.class,
+            ADDRESS, String.class,
+            OPTIONAL, Boolean.class,
+            CRITICAL, Boolean.class,
+            "worker", Boolean.class,
+            RETRY, JsonObject.class,
+            AUTOSCALE, JsonObject.class);
+
+    private static final Map<String, Map<String, Class<?>>> SETTINGS_TYPES = new HashMap<>();
+
+    static {
+        SETTINGS_TYPES.put(RETRY, types(MAX_ATTEMPTS, Number.class, DELAY, Number.class,
+                MULTIPLIER, Number.class, MAX_DELAY, Number.class, JITTER, Number.class));
+        SETTINGS_TYPES.put(AUTOSCALE, types(MIN, Number.class, MAX, Number.class,
+                TARGET, Number.class, SUSTAIN, Number.class, MAX_PENDING, Number.class));
+        SETTINGS_TYPES.put(ROLLING, types(BATCH_SIZE, Number.class, PAUSE, Number.class));
+    }
+
+    private final Map<String, JsonObject> definitions = new LinkedHashMap<>();
+
+    private final Map<String, List<String>> dependencies = new HashMap<>();
+
+    private final Map<String, List<String>> dependents = new HashMap<>();
+
+    private final Map<String, Integer> index = new HashMap<>();
+
+    private final Map<String, Long> priority = new HashMap<>();
+
+    private final Map<String, JsonObject> configs = new HashMap<>();
+
+    private final Set<String> lazy = new LinkedHashSet<>();
+
+    private final Map<String, Map<String, Object>> quorum = new HashMap<>();
+
+    private final List<String> problems = new ArrayList<>();
+
+    private final Map<String, Long> measuredDurations;
+
+    private final JsonObject globalConfig;
+
+    private final long stopTimeout;
+
+    private final long shutdownTimeout;
+
+    private final int maxConcurrentDeployments;
+
+    private final long reloadInterval;
+
+    private final boolean preloadClasses;
+
+    private final String traceFile;
+
+    private final long eventLoopProbeInterval;
+
+    private final long autoscaleInterval;
+
+    private final String readyFile;
+
+    private final int readinessPort;
+
+    /**
+     * Compile the plan from the deployer configuration.
+     *
+     * @param configuration The content of the deployer.json
+     */
+    public DeploymentPlan(final JsonObject configuration) {
+        this(configuration, Collections.emptyMap());
+    }
+
+    /**
+     * Compile the plan from the deployer configuration and the start
+     * durations measured in previous deployments. Measured durations take
+     * precedence over the declared "startDuration".
+     *
+     * @param configuration The content of the deployer.json
+     * @param measuredDurations The start duration in milliseconds per id
+     */
+    public DeploymentPlan(final JsonObject configuration, final Map<String, Long> measuredDurations) {
+        this.measuredDurations = measuredDurations;
+        JsonObject global = typed("The configuration", "", configuration, GLOBAL_TYPES);
+        JsonObject verticles = global.getJsonObject(VERTICLES, new JsonObject());
+        globalConfig = global.getJsonObject(CONFIG, new JsonObject());
+        stopTimeout = global.getLong(STOP_TIMEOUT, DEFAULT_STOP_TIMEOUT);
+        shutdownTimeout = global.getLong(SHUTDOWN_TIMEOUT, DEFAULT_SHUTDOWN_TIMEOUT);
+        reloadInterval = global.getLong(RELOAD_INTERVAL, 0L);
+        preloadClasses = global.getBoolean(PRELOAD_CLASSES, true);
+        traceFile = global.getString(TRACE_FILE);
+        eventLoopProbeInterval = global.getLong(EVENT_LOOP_PROBE_INTERVAL, DEFAULT_EVENT_LOOP_PROBE_INTERVAL);
+        autoscaleInterval = global.getLong(AUTOSCALE_INTERVAL, DEFAULT_AUTOSCALE_INTERVAL);
+        readyFile = global.getString(READY_FILE);
+        readinessPort = global.getInteger(READINESS_PORT, 0);
+        Object limit = configuration.getValue(MAX_CONCURRENT_DEPLOYMENTS);
+        validateStartupProfile(global.getJsonObject(StartupProfile.STARTUP_PROFILE));
+
+        verticles.fieldNames().forEach(id -> {
+            if (!(verticles.getValue(id) instanceof JsonObject)) {
+                problems.add("'" + id + "' is not an object: " + verticles.getValue(id));
+                return;
+            }
+            JsonObject info = typedDefinition(id, verticles.getJsonObject(id));
+            JsonArray dependsOn = info.getJsonArray(DEPENDS_ON, new JsonArray());
+            Set<String> distinct = new LinkedHashSet<>();
+            dependsOn.forEach(dependency -> {
+                if (dependency instanceof JsonObject && ((JsonObject) dependency).getValue(ID) instanceof String) {
+                    JsonObject entry = (JsonObject) dependency;
+                    distinct.add(entry.getString(ID));
+                    if (entry.containsKey(QUORUM)) {
+                        quorum.computeIfAbsent(id, key -> new HashMap<>()).
+                                put(entry.getString(ID), entry.getValue(QUORUM));
+                    }
+                } else if (dependency instanceof String) {
+                    distinct.add((String) dependency);
+                } else {
+                    problems.add("'" + id + "' has an invalid dependency: " + dependency);
+                }
+            });
+
+            index.put(id, definitions.size());
+            definitions.put(id, info);
+            dependencies.put(id, Collections.unmodifiableList(new ArrayList<>(distinct)));
+            distinct.forEach(dependency -> dependents.
+                    computeIfAbsent(dependency, key -> new ArrayList<>()).
+                    add(id));
+        });
+
+        computePriorities();
+        computeLazy();
+        validate();
+        if (limit != null && !AUTO.equals(limit) && !(limit instanceof Number && ((Number) limit).intValue() > 0)) {
+            problems.add("The configuration has an invalid \"" + MAX_CONCURRENT_DEPLOYMENTS + "\": " + limit);
+        }
+        maxConcurrentDeployments = AUTO.equals(limit)
+                ? automaticConcurrency()
+                : limit instanceof Number ? ((Number) limit).intValue() : Integer.MAX_VALUE;
+    }
+
+    /**
+     * Check the settings of the {@link StartupProfile}, which is loaded before
+     * the plan is compiled.
+     *
+     * @param settings The "startupProfile" settings, may be null
+     */
+    private void validateStartupProfile(final JsonObject settings) {
+        if (settings == null) {
+            return;
+        }
+        String prefix = StartupProfile.STARTUP_PROFILE + ".";
+        JsonObject checked = typed("The configuration", prefix, settings, STARTUP_PROFILE_TYPES);
+        Double smoothing = checked.getDouble(StartupProfile.SMOOTHING);
+        if (smoothing != null && !(smoothing > 0 && smoothing <= 1)) {
+            problems.add("The configuration has an invalid \"" + prefix + StartupProfile.SMOOTHING + "\": "
+                    + settings.getValue(StartupProfile.SMOOTHING));
+        }
+    }
+
+    /**
+     * @param pairs The keys, each followed by the type of its value
+     * @return The types by their key
+     */
+    private static Map<String, Class<?>> types(final Object... pairs) {
+        Map<String, Class<?>> types = new LinkedHashMap<>();
+        for (int i = 0; i < pairs.length; i += 2) {
+            types.put((String) pairs[i], (Class<?>) pairs[i + 1]);
+        }
+        return types;
+    }
+
+    /**
+     * @param id The id of the verticle
+     * @param declared The definition of the verticle in the configuration
+     * @return The definition without the fields of an unexpected type
+     */
+    private JsonObject typedDefinition(final String id, final JsonObject declared) {
+        JsonObject info = typed("'" + id + "'", "", declared, VERTICLE_TYPES);
+        for (Map.Entry<String, Map<String, Class<?>>> settings : SETTINGS_TYPES.entrySet()) {
+            if (info.getValue(settings.getKey()) instanceof JsonObject) {
+                JsonObject values = info.getJsonObject(settings.getKey());
+                JsonObject checked = typed("'" + id + "'", settings.getKey() + ".", values, settings.getValue());
+                if (checked != values) {
+                    info = (info == declared ? info.copy() : info).put(settings.getKey(), checked);
+                }
+            }
+        }
+        return info;
+    }
+
+    /**
+     * Remove the fields of an unexpected type from a JSON object. Every such
+     * field is reported as a problem, the plan continues with its default so
+     * that all problems are found at once.
+     *
+     * @param owner The owner of the fields in the problems
+     * @param prefix The prefix of the keys in the problems
+     * @param json The JSON object, it is not modified
+     * @param types The expected types by their key
+     * @return The JSON object itself when all fields have the expected type,
+     * a copy without the other fields otherwise
+     */
+    private JsonObject typed(final String owner, final String prefix, final JsonObject json,
+            final Map<String, Class<?>> types) {
+        JsonObject checked = json;
+        for (Map.Entry<String, Class<?>> type : types.entrySet()) {
+            Object value = json.getValue(type.getKey());
+            if (value != null && !type.getValue().isInstance(value)) {
+                problems.add(owner + " has an invalid \"" + prefix + type.getKey() + "\": " + value);
+                if (checked == json) {
+                    checked = json.copy();
+                }
+                checked.remove(type.getKey());
+            }
+        }
+        return checked;
+    }
+
+    /**
+     * The automatic concurrency limit is the average parallelism of the plan:
+     * the sum of all start durations divided by the length of the critical
+     * path. More parallel deployments cannot shorten the startup on average,
+     * they only cause load spikes.
+     *
+     * @return The automatic limit, at least 1
+     */
+    private int automaticConcurrency() {
+        long work = 0;
+        long criticalPath = 1;
+        for (String id : definitions.keySet()) {
+            work += startDuration(id);
+            criticalPath = Math.max(criticalPath, priority(id));
+        }
+        int limit = (int) Math.max(1, (work + criticalPath - 1) / criticalPath);
+        LOG.log(Level.INFO, "Automatic concurrency limit: {0}", limit);
+        return limit;
+    }
+
+    /**
+     * Compute the priority of every verticle: the longest path from the
+     * verticle to a verticle without dependents, weighted by the expected
+     * start duration. The verticles are visited from the sinks upwards, every
+     * edge is followed once.
+     */
+    private void computePriorities() {
+        Map<String, Integer> pending = new HashMap<>();
+        List<String> sinks = new ArrayList<>();
+        definitions.keySet().forEach(id -> {
+            int count = dependents(id).size();
+            pending.put(id, count);
+            if (count == 0) {
+                sinks.add(id);
+            }
+        });
+
+        while (!sinks.isEmpty()) {
+            String id = sinks.remove(sinks.size() - 1);
+            long longest = 0;
+            for (String dependent : dependents(id)) {
+                longest = Math.max(longest, priority.get(dependent));
+            }
+            priority.put(id, startDuration(id) + longest);
+
+            dependencies(id).forEach(dependency -> {
+                if (pending.containsKey(dependency)
+                        && pending.merge(dependency, -1, Integer::sum) == 0) {
+                    sinks.add(dependency);
+                }
+            });
+        }
+    }
+
+    /**
+     * A verticle marked as "lazy" is only deployed on demand. A verticle
+     * which is not lazy needs all its dependencies at startup, so a lazy
+     * verticle on which an eager verticle depends, directly or transitively,
+     * is deployed at startup as well.
+     */
+    private void computeLazy() {
+        Set<String> eager = withDependencies(definitions.keySet().stream().
+                filter(id -> !definitions.get(id).getBoolean(LAZY, false)).
+                collect(Collectors.toList()));
+        definitions.keySet().stream().
+                filter(id -> !eager.contains(id)).
+                forEach(lazy::add);
+        eager.stream().
+                filter(id -> definitions.get(id).getBoolean(LAZY, false)).
+                forEach(id -> LOG.log(Level.INFO, "''{0}'' is deployed at startup, an eager verticle depends on it", id));
+    }
+
+    /**
+     * Check the graph in linear time: every dependency must exist, the
+     * dependencies must not form a cycle, every verticle must be deployable
+     * and no verticle may repeat the name and configuration of another one.
+     * The instances and the weight of a verticle must be positive.
+     */
+    private void validate() {
+        Map<String, String> signatures = new HashMap<>();
+        definitions.forEach((id, info) -> {
+            if (instances(id) < 1) {
+                problems.add("'" + id + "' has an invalid \"" + INSTANCES + "\": " + instances(id));
+            }
+            if (weight(id) < 1) {
+                problems.add("'" + id + "' has an invalid \"" + WEIGHT + "\": " + weight(id));
+            }
+            if (info.getString(NAME) == null) {
+                problems.add("'" + id + "' has no name");
+            } else {
+                String signature = info.getString(NAME) + " " + info.getInteger(INSTANCES, 1) + " " + config(id).encode();
+                String duplicate = signatures.putIfAbsent(signature, id);
+                if (duplicate != null) {
+                    problems.add("'" + id + "' repeats the name and configuration of '" + duplicate + "'");
+                }
+            }
+            dependencies(id).stream().
+                    filter(dependency -> !contains(dependency)).
+                    forEach(dependency -> problems.add("'" + id + "' depends on unknown '" + dependency + "'"));
+            quorum.getOrDefault(id, Collections.emptyMap()).forEach((dependency, declared) -> {
+                if (!validQuorum(declared)) {
+                    problems.add("'" + id + "' has an invalid quorum for '" + dependency + "': " + declared);
+                }
+            });
+        });
+
+        // verticles without a priority were not reached from the sinks
+        Set<String> blocked = new LinkedHashSet<>(definitions.keySet());
+        blocked.removeAll(priority.keySet());
+        findCycles(blocked).forEach(cycle -> problems.add("Cycle: " + String.join(" -> ", cycle)));
+
+        definitions.keySet().stream().filter(this::autoscaled).forEach(id -> {
+            if (definitions.get(id).getBoolean("worker", false)) {
+                problems.add("'" + id + "' is a worker verticle, only event loop verticles are autoscaled");
+            }
+            if (minInstances(id) < 1 || maxInstances(id) < minInstances(id)) {
+                problems.add("'" + id + "' has invalid autoscale bounds: " + minInstances(id) + ".." + maxInstances(id));
+            }
+            if (!(targetUtilisation(id) > 0 && targetUtilisation(id) <= 1)) {
+                problems.add("'" + id + "' has an invalid autoscale target: " + targetUtilisation(id));
+            }
+            if (maxPending(id) < 0) {
+                problems.add("'" + id + "' has an invalid autoscale maxPending: " + maxPending(id));
+            }
+        });
+
+        lazy.stream().
+                filter(id -> address(id) == null && dependents(id).stream().noneMatch(lazy::contains)).
+                forEach(id -> problems.add("Lazy '" + id + "' has no address and no lazy dependent, it is never deployed"));
+    }
+
+    /**
+     * Find the cycles among the verticles which are part of or depend on a
+     * cycle. Every back edge of an iterative depth first search closes one
+     * cycle.
+     *
+     * @param candidates The verticles which could not be ordered
+     * @return The cycles, each starting and ending with the same id
+     */
+    private List<List<String>> findCycles(final Set<String> candidates) {
+        List<List<String>> cycles = new ArrayList<>();
+        Set<String> done = new HashSet<>();
+        for (String root : candidates) {
+            if (done.contains(root)) {
+                continue;
+            }
+            // the path of the search with the position of the next dependency
+            LinkedList<String> path = new LinkedList<>();
+            Map<String, Integer> next = new HashMap<>();
+            path.add(root);
+            next.put(root, 0);
+            while (!path.isEmpty()) {
+                String id = path.getLast();
+                List<String> edges = dependencies(id);
+                int position = next.get(id);
+                if (position == edges.size()) {
+                    path.removeLast();
+                    next.remove(id);
+                    done.add(id);
+                    continue;
+                }
+                next.put(id, position + 1);
+                String dependency = edges.get(position);
+                if (!candidates.contains(dependency) || done.contains(dependency)) {
+                    continue;
+                }
+                if (next.containsKey(dependency)) {
+                    List<String> cycle = new ArrayList<>(path.subList(path.indexOf(dependency), path.size()));
+                    cycle.add(dependency);
+                    cycles.add(cycle);
+                } else {
+                    path.add(dependency);
+                    next.put(dependency, 0);
+                }
+            }
+        }
+        return cycles;
+    }
+
+    private static boolean validQuorum(final Object declared) {
+        if (declared instanceof Number) {
+            return ((Number) declared).intValue() > 0;
+        }
+        if (declared instanceof String && ((String) declared).endsWith("%")) {
+            String percentage = (String) declared;
+            try {
+                return Double.parseDouble(percentage.substring(0, percentage.length() - 1)) > 0;
+            } catch (NumberFormatException e) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Validate a deployer configuration without deploying it.
+     *
+     * @param configuration The content of the deployer.json
+     * @return The problems of the configuration, empty when it is valid
+     */
+    public static List<String> validate(final JsonObject configuration) {
+        return new DeploymentPlan(configuration).problems();
+    }
+
+    /**
+     * @return The problems found when the plan was compiled, empty when the
+     * plan is valid
+     */
+    public List<String> problems() {
+        return Collections.unmodifiableList(problems);
+    }
+
+    /**
+     * @return The ids of all verticles in the order of the configuration
+     */
+    public Set<String> ids() {
+        return Collections.unmodifiableSet(definitions.keySet());
+    }
+
+    /**
+     * @param id The id of the verticle
+     * @return true when the plan contains a verticle with this id
+     */
+    public boolean contains(final String id) {
+        return definitions.containsKey(id);
+    }
+
+    /**
+     * @param id The id of the verticle
+     * @return The definition of the verticle as found in the configuration
+     */
+    public JsonObject definition(final String id) {
+        return definitions.get(id);
+    }
+
+    /**
+     * @param id The id of the verticle
+     * @return The name of the verticle, which is passed to Vert.x
+     */
+    public String name(final String id) {
+        return definitions.get(id).getString(NAME);
+    }
+
+    /**
+     * @param id The id of the verticle
+     * @return The distinct ids this verticle depends on
+     */
+    public List<String> dependencies(final String id) {
+        return dependencies.getOrDefault(id, Collections.emptyList());
+    }
+
+    /**
+     * @param id The id of the verticle
+     * @return The ids of the verticles which depend on this verticle
+     */
+    public List<String> dependents(final String id) {
+        return Collections.unmodifiableList(dependents.getOrDefault(id, Collections.emptyList()));
+    }
+
+    /**
+     * The configuration which is passed to the verticle. The configuration
+     * of the verticle is merged recursively into the global configuration
+     * and takes precedence. The result is built once per verticle and shares
+     * the subtrees of the global configuration which are not overridden.
+     *
+     * @param id The id of the verticle
+     * @return The configuration of the verticle, must not be modified
+     */
+    public JsonObject config(final String id) {
+        return configs.computeIfAbsent(id, key -> LayeredConfig.merge(globalConfig,
+                definitions.get(key).getJsonObject(CONFIG)));
+    }
+
+    /**
+     * @param id The id of the verticle
+     * @return The number of "instances" of the verticle, 1 by default
+     */
+    public int instances(final String id) {
+        return definitions.get(id).getInteger(INSTANCES, 1);
+    }
+
+    /**
+     * The number of instances of a dependency which must be deployed before
+     * the verticle can be deployed. A dependency can be declared as an object
+     * with a "quorum", either a number of instances or a percentage like
+     * "50%". Without a quorum all instances are required.
+     *
+     * @param id The id of the verticle
+     * @param dependency The id of the dependency
+     * @return The required instances of the dependency, at least 1
+     */
+    public int quorum(final String id, final String dependency) {
+        int instances = instances(dependency);
+        Object declared = quorum.getOrDefault(id, Collections.emptyMap()).get(dependency);
+        int required = instances;
+        if (declared instanceof Number) {
+            required = ((Number) declared).intValue();
+        } else if (validQuorum(declared)) {
+            String percentage = (String) declared;
+            double fraction = Double.parseDouble(percentage.substring(0, percentage.length() - 1)) / 100;
+            required = (int) Math.ceil(fraction * instances);
+        }
+        return Math.max(1, Math.min(instances, required));
+    }
+
+    /**
+     * The instances of a verticle are deployed one by one when a dependent
+     * does not need all of them.
+     *
+     * @param id The id of the verticle
+     * @return true when the instances are deployed individually
+     */
+    public boolean deployInstancesIndividually(final String id) {
+        int instances = instances(id);
+        return instances > 1 && dependents(id).stream().
+                anyMatch(dependent -> quorum(dependent, id) < instances);
+    }
+
+    /**
+     * @param id The id of the verticle
+     * @return true when the deployment continues without the verticle when
+     * it fails
+     */
+    public boolean optional(final String id) {
+        return definitions.get(id).getBoolean(OPTIONAL, false);
+    }
+
+    /**
+     * @param id The id of the verticle
+     * @return The "maxAttempts" of the "retry" settings, 1 without retry
+     */
+    public int maxAttempts(final String id) {
+        return Math.max(1, retry(id).getInteger(MAX_ATTEMPTS, 1));
+    }
+
+    /**
+     * The delay before the next attempt grows exponentially with the
+     * "multiplier", starting with "delay" and limited by "maxDelay". The
+     * "jitter" spreads the delay randomly by the given fraction, so verticles
+     * failing together do not retry together.
+     *
+     * @param id The id of the verticle
+     * @param attempt The number of the failed attempt, starting with 1
+     * @return The delay in milliseconds before the next attempt, at least 1
+     */
+    public long retryDelay(final String id, final int attempt) {
+        JsonObject retry = retry(id);
+        long maxDelay = retry.getLong(MAX_DELAY, DEFAULT_MAX_DELAY);
+        double delay = Math.min(maxDelay, retry.getLong(DELAY, DEFAULT_RETRY_DELAY)
+                * Math.pow(retry.getDouble(MULTIPLIER, DEFAULT_MULTIPLIER), attempt - 1));
+        double jitter = retry.getDouble(JITTER, DEFAULT_JITTER);
+        delay *= 1 + jitter * (2 * ThreadLocalRandom.current().nextDouble() - 1);
+        return Math.max(1, Math.min(maxDelay, Math.round(delay)));
+    }
+
+    /**
+     * @param id The id of the verticle
+     * @return true when the instances of the verticle are scaled with the
+     * load
+     */
+    public boolean autoscaled(final String id) {
+        return definitions.get(id).getValue(AUTOSCALE) instanceof JsonObject;
+    }
+
+    /**
+     * @param id The id of the verticle
+     * @return The "min" instances of the "autoscale" settings, 1 by default
+     */
+    public int minInstances(final String id) {
+        return autoscale(id).getInteger(MIN, 1);
+    }
+
+    /**
+     * @param id The id of the verticle
+     * @return The "max" instances of the "autoscale" settings, by default
+     * the number of event loops Vert.x starts
+     */
+    public int maxInstances(final String id) {
+        return autoscale(id).getInteger(MAX, 2 * Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param id The id of the verticle
+     * @return The "target" utilisation of an instance, between 0 and 1
+     */
+    public double targetUtilisation(final String id) {
+        return autoscale(id).getDouble(TARGET, DEFAULT_TARGET);
+    }
+
+    /**
+     * @param id The id of the verticle
+     * @return The number of consecutive intervals the utilisation must stay
+     * beyond the target before the instances are changed
+     */
+    public int sustain(final String id) {
+        return Math.max(1, autoscale(id).getInteger(SUSTAIN, DEFAULT_SUSTAIN));
+    }
+
+    /**
+     * @param id The id of the verticle
+     * @return The average number of tasks waiting on the event loop of a busy
+     * instance above which an instance is added, 0 when the waiting tasks
+     * are ignored
+     */
+    public double maxPending(final String id) {
+        return autoscale(id).getDouble(MAX_PENDING, 0.0);
+    }
+
+    /**
+     * The critical verticles are the verticles marked as "critical" which
+     * are not lazy, together with all their dependencies.
+     *
+     * @return The verticles which must be deployed before the application
+     * takes traffic
+     */
+    public Set<String> critical() {
+        return withDependencies(ids().stream().
+                filter(id -> definitions.get(id).getBoolean(CRITICAL, false) && !lazy(id)).
+                collect(Collectors.toList()));
+    }
+
+    /**
+     * @param id The id of the verticle
+     * @return true when a changed verticle is replaced instance by instance
+     */
+    public boolean rolling(final String id) {
+        return definitions.get(id).getValue(ROLLING) instanceof JsonObject;
+    }
+
+    /**
+     * @param id The id of the verticle
+     * @return The number of instances replaced at once by a rollout, at
+     * least 1
+     */
+    public int batchSize(final String id) {
+        return Math.max(1, rollingSettings(id).getInteger(BATCH_SIZE, 1));
+    }
+
+    /**
+     * @param id The id of the verticle
+     * @return The pause in milliseconds between two batches of a rollout
+     */
+    public long rollingPause(final String id) {
+        return rollingSettings(id).getLong(PAUSE, 0L);
+    }
+
+    private JsonObject rollingSettings(final String id) {
+        return definitions.get(id).getValue(ROLLING) instanceof JsonObject
+                ? definitions.get(id).getJsonObject(ROLLING)
+                : new JsonObject();
+    }
+
+    private JsonObject autoscale(final String id) {
+        return definitions.get(id).getJsonObject(AUTOSCALE, new JsonObject());
+    }
+
+    private JsonObject retry(final String id) {
+        return definitions.get(id).getJsonObject(RETRY, new JsonObject());
+    }
+
+    /**
+     * @param id The id of the verticle
+     * @return true when the verticle is only deployed on demand
+     */
+    public boolean lazy(final String id) {
+        return lazy.contains(id);
+    }
+
+    /**
+     * @param id The id of the verticle
+     * @return The event bus "address" which triggers the deployment of a lazy
+     * verticle, or null
+     */
+    public String address(final String id) {
+        return definitions.get(id).getString(ADDRESS);
+    }
+
+    /**
+     * @param id The id of the verticle
+     * @return The position of the verticle in the configuration
+     */
+    public int index(final String id) {
+        return index.get(id);
+    }
+
+    /**
+     * @param id The id of the verticle
+     * @return The measured start duration of the verticle in milliseconds, or
+     * the declared "startDuration", 1 by default
+     */
+    public long startDuration(final String id) {
+        Long measured = measuredDurations.get(id);
+        return measured != null ? measured : definitions.get(id).getLong(START_DURATION, 1L);
+    }
+
+    /**
+     * The priority of a verticle is the length of the longest chain of
+     * dependents, including the verticle itself, weighted by the start
+     * duration. Verticles on the critical path have the highest priority.
+     *
+     * @param id The id of the verticle
+     * @return The priority of the verticle
+     */
+    public long priority(final String id) {
+        return priority.getOrDefault(id, startDuration(id));
+    }
+
+    /**
+     * The weight of a verticle counts against the
+     * {@link #maxConcurrentDeployments()} while it is being deployed.
+     *
+     * @param id The id of the verticle
+     * @return The "weight" of the verticle, 1 by default
+     */
+    public int weight(final String id) {
+        return definitions.get(id).getInteger(WEIGHT, 1);
+    }
+
+    /**
+     * @return The maximum sum of weights of the verticles being deployed at
+     * the same time, unlimited by default
+     */
+    public int maxConcurrentDeployments() {
+        return maxConcurrentDeployments;
+    }
+
+    /**
+     * The time a verticle gets to stop before its dependencies are undeployed
+     * anyway. A verticle can override the global "stopTimeout".
+     *
+     * @param id The id of the verticle
+     * @return The stop timeout in milliseconds
+     */
+    public long stopTimeout(final String id) {
+        return definitions.get(id).getLong(STOP_TIMEOUT, stopTimeout);
+    }
+
+    /**
+     * @return The maximum time in milliseconds to wait for the undeployment of
+     * the whole plan
+     */
+    public long shutdownTimeout() {
+        return shutdownTimeout;
+    }
+
+    /**
+     * @return The interval in milliseconds to check the configuration for
+     * changes, 0 when the configuration is not reloaded
+     */
+    public long reloadInterval() {
+        return reloadInterval;
+    }
+
+    /**
+     * @return true when the classes of waiting verticles are loaded in the
+     * background, the default
+     */
+    public boolean preloadClasses() {
+        return preloadClasses;
+    }
+
+    /**
+     * @return The path of the file to write the trace of the deployment to,
+     * or null
+     */
+    public String traceFile() {
+        return traceFile;
+    }
+
+    /**
+     * @return The interval in milliseconds in which the event loops are
+     * probed during a deployment, 0 when they are not probed
+     */
+    public long eventLoopProbeInterval() {
+        return eventLoopProbeInterval;
+    }
+
+    /**
+     * @return The file to create once the application is ready, or null
+     */
+    public String readyFile() {
+        return readyFile;
+    }
+
+    /**
+     * @return The port of the readiness endpoint, 0 without endpoint
+     */
+    public int readinessPort() {
+        return readinessPort;
+    }
+
+    /**
+     * @return The interval in milliseconds in which the autoscaled verticles
+     * are evaluated
+     */
+    public long autoscaleInterval() {
+        return autoscaleInterval;
+    }
+
+    /**
+     * Compare this plan with a previous plan. A verticle has changed when it
+     * is new, removed, or when its definition or its configuration, including
+     * the global configuration, differs.
+     *
+     * @param previous The previous plan
+     * @return The ids of the changed verticles
+     */
+    public Set<String> changedSince(final DeploymentPlan previous) {
+        Set<String> changed = new LinkedHashSet<>();
+        previous.ids().forEach(id -> {
+            if (!contains(id)) {
+                changed.add(id);
+            }
+        });
+        ids().forEach(id -> {
+            if (!previous.contains(id)
+                    || !definition(id).equals(previous.definition(id))
+                    || !config(id).equals(previous.config(id))) {
+                changed.add(id);
+            }
+        });
+        return changed;
+    }
+
+    /**
+     * Compare a verticle with the same verticle of a previous plan. Its
+     * instances must be replaced when the name, the configuration or the
+     * deployment options besides "instances" differ; the settings of the
+     * deployer, such as "rolling", do not reach the verticle.
+     *
+     * @param id The id of a verticle of both plans
+     * @param previous The previous plan
+     * @return true when the running instances must be replaced
+     */
+    public boolean restartedSince(final String id, final DeploymentPlan previous) {
+        return !name(id).equals(previous.name(id))
+                || !config(id).equals(previous.config(id))
+                || !new DeploymentOptions(definition(id)).setInstances(1).
+                        equals(new DeploymentOptions(previous.definition(id)).setInstances(1));
+    }
+
+    /**
+     * Extend a set of verticles with all verticles depending on them,
+     * directly or transitively. Ids which are not part of this plan are
+     * ignored.
+     *
+     * @param ids The ids of the verticles
+     * @return The verticles of this plan and all their dependents
+     */
+    public Set<String> withDependents(final Collection<String> ids) {
+        Set<String> result = new LinkedHashSet<>();
+        Deque<String> open = new ArrayDeque<>();
+        ids.stream().filter(this::contains).forEach(open::add);
+        while (!open.isEmpty()) {
+            String id = open.poll();
+            if (result.add(id)) {
+                open.addAll(dependents(id));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Extend a set of verticles with all verticles they depend on, directly
+     * or transitively. Ids which are not part of this plan are ignored.
+     *
+     * @param ids The ids of the verticles
+     * @return The verticles of this plan and all their dependencies
+     */
+    public Set<String> withDependencies(final Collection<String> ids) {
+        Set<String> result = new LinkedHashSet<>();
+        Deque<String> open = new ArrayDeque<>();
+        ids.stream().filter(this::contains).forEach(open::add);
+        while (!open.isEmpty()) {
+            String id = open.poll();
+            if (result.add(id)) {
+                dependencies(id).stream().filter(this::contains).forEach(open::add);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return The number of verticles in the plan
+     */
+    public int size() {
+        return definitions.size();
+    }
+}
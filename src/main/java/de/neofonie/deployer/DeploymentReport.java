@@ -0,0 +1,442 @@
+/*
+ The MIT License (MIT)
+
+ Copyright (c) 2015 Neofonie GmbH
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in all
+ copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ SOFTWARE.
+ */
+package de.neofonie.deployer;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timing of a deployment. For every verticle the moments it was queued (all
+ * dependencies deployed), started and completed are recorded with
+ * System.nanoTime().
+ *
+ * From the measured durations the critical path through the plan is computed:
+ * the chain of dependencies which determines the minimal startup time. A
+ * dependent which only needs a quorum of the instances of a dependency can
+ * start once that many instances are deployed. The
+ * slack of a verticle is the time its deployment could be delayed without
+ * delaying the whole deployment. All times in the report are nanoseconds
+ * relative to the start of the deployment.
+ *
+ * The report can also be exported as a trace in the Trace Event Format,
+ * which loads in chrome://tracing or Perfetto, see {@link #toTrace()}.
+ *
+ * @author jan.decooman@neofonie.de, jonas.muecke@neofonie.de
+ */
+public class DeploymentReport {
+
+    private final DeploymentPlan plan;
+
+    private final long begin;
+
+    private final Map<String, Timing> timings = new HashMap<>();
+
+    private final List<String> completionOrder = new ArrayList<>();
+
+    private long end;
+
+    private long unattributedBlocked = 0;
+
+    /**
+     * Create the report, the deployment starts now.
+     *
+     * @param plan The plan which is deployed
+     */
+    public DeploymentReport(final DeploymentPlan plan) {
+        this.plan = plan;
+        this.begin = System.nanoTime();
+        this.end = begin;
+    }
+
+    /**
+     * @param id The verticle which has no unresolved dependencies anymore
+     */
+    public void queued(final String id) {
+        timings.computeIfAbsent(id, key -> new Timing()).queued = System.nanoTime();
+    }
+
+    /**
+     * @param id The verticle which is handed to Vert.x
+     */
+    public void started(final String id) {
+        timings.computeIfAbsent(id, key -> new Timing()).started = System.nanoTime();
+    }
+
+    /**
+     * @param id The verticle of which instances are deployed
+     * @param count The number of deployed instances
+     */
+    public void instancesDeployed(final String id, final int count) {
+        Timing timing = timings.computeIfAbsent(id, key -> new Timing());
+        long now = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            timing.instances.add(now);
+        }
+    }
+
+    /**
+     * @param id The verticle which is deployed
+     */
+    public void completed(final String id) {
+        end = System.nanoTime();
+        timings.computeIfAbsent(id, key -> new Timing()).completed = end;
+        completionOrder.add(id);
+    }
+
+    /**
+     * @param blocked The time in nanoseconds the event loops were blocked,
+     * per verticle id, as measured by the {@link EventLoopProbe}
+     */
+    void eventLoopBlocked(final Map<String, Long> blocked) {
+        blocked.forEach((id, nanos) -> {
+            if (EventLoopProbe.UNATTRIBUTED.equals(id)) {
+                unattributedBlocked += nanos;
+            } else {
+                timings.computeIfAbsent(id, key -> new Timing()).eventLoopBlocked += nanos;
+            }
+        });
+    }
+
+    /**
+     * @param id The id of the verticle
+     * @return The milliseconds since the verticle was handed to Vert.x, 0
+     * when it has not been started or is completed
+     */
+    public long running(final String id) {
+        Timing timing = timings.get(id);
+        return timing == null || timing.started == 0 || timing.completed != 0
+                ? 0
+                : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - timing.started);
+    }
+
+    /**
+     * @param id The id of the verticle
+     * @return The time between start and completion in nanoseconds
+     */
+    public long duration(final String id) {
+        Timing timing = timings.get(id);
+        return timing == null || timing.completed == 0 ? 0 : timing.completed - timing.started;
+    }
+
+    /**
+     * @param id The id of the verticle
+     * @param instances The number of instances
+     * @return The time between start and the deployment of the given number
+     * of instances in nanoseconds, the duration when they are not recorded
+     */
+    private long duration(final String id, final int instances) {
+        Timing timing = timings.get(id);
+        return timing == null || timing.instances.size() < instances
+                ? duration(id)
+                : timing.instances.get(instances - 1) - timing.started;
+    }
+
+    /**
+     * Compute the critical path and the slack of every deployed verticle and
+     * create the report.
+     *
+     * @return The report as JSON
+     */
+    public JsonObject toJson() {
+        // earliest start, in start order which respects the dependencies
+        List<String> startOrder = new ArrayList<>(completionOrder);
+        startOrder.sort(Comparator.comparingLong(id -> timings.get(id).started));
+        Map<String, Long> earliestStart = new HashMap<>();
+        Map<String, Long> earliestFinish = new HashMap<>();
+        long length = 0;
+        String last = null;
+        for (String id : startOrder) {
+            long start = 0;
+            for (String dependency : plan.dependencies(id)) {
+                start = Math.max(start, available(earliestStart, id, dependency));
+            }
+            long finish = start + duration(id);
+            earliestStart.put(id, start);
+            earliestFinish.put(id, finish);
+            if (last == null || finish > length) {
+                length = finish;
+                last = id;
+            }
+        }
+
+        // latest start, in reverse completion order
+        Map<String, Long> latestStart = new HashMap<>();
+        List<String> reverse = new ArrayList<>(startOrder);
+        Collections.reverse(reverse);
+        for (String id : reverse) {
+            long start = length - duration(id);
+            for (String dependent : plan.dependents(id)) {
+                if (latestStart.containsKey(dependent)) {
+                    start = Math.min(start, latestStart.get(dependent)
+                            - duration(id, plan.quorum(dependent, id)));
+                }
+            }
+            latestStart.put(id, start);
+        }
+
+        // follow the dependencies which determined the earliest start
+        LinkedList<String> criticalPath = new LinkedList<>();
+        for (String id = last; id != null;) {
+            criticalPath.addFirst(id);
+            String previous = null;
+            for (String dependency : plan.dependencies(id)) {
+                if (earliestFinish.containsKey(dependency)
+                        && available(earliestStart, id, dependency) == earliestStart.get(id)) {
+                    previous = dependency;
+                    break;
+                }
+            }
+            id = previous;
+        }
+
+        JsonObject verticles = new JsonObject();
+        long work = 0;
+        long eventLoopBlocked = unattributedBlocked;
+        for (Map.Entry<String, Timing> entry : timings.entrySet()) {
+            String id = entry.getKey();
+            Timing timing = entry.getValue();
+            JsonObject verticle = new JsonObject()
+                    .put("queued", relative(timing.queued))
+                    .put("started", relative(timing.started))
+                    .put("wait", timing.started == 0 ? 0 : timing.started - timing.queued)
+                    .put("eventLoopBlocked", timing.eventLoopBlocked);
+            if (timing.completed != 0) {
+                work += duration(id);
+                verticle.put("completed", relative(timing.completed))
+                        .put("duration", duration(id))
+                        .put("earliestStart", earliestStart.get(id))
+                        .put("latestStart", latestStart.get(id))
+                        .put("slack", latestStart.get(id) - earliestStart.get(id));
+            }
+            eventLoopBlocked += timing.eventLoopBlocked;
+            verticles.put(id, verticle);
+        }
+
+        long wallClock = end - begin;
+        return new JsonObject()
+                .put("wallClock", wallClock)
+                .put("work", work)
+                .put("parallelism", wallClock == 0 ? 0.0 : (double) work / wallClock)
+                .put("criticalPathLength", length)
+                .put("criticalPath", new JsonArray(criticalPath))
+                .put("eventLoopBlocked", eventLoopBlocked)
+                .put("unattributedEventLoopBlocked", unattributedBlocked)
+                .put("verticles", verticles);
+    }
+
+    /**
+     * @param earliestStart The earliest start of the verticles so far
+     * @param id The id of the dependent
+     * @param dependency The id of the dependency
+     * @return The earliest moment the quorum of the dependency is deployed,
+     * 0 when the dependency was not part of the deployment
+     */
+    private long available(final Map<String, Long> earliestStart, final String id, final String dependency) {
+        Long start = earliestStart.get(dependency);
+        return start == null ? 0 : start + duration(dependency, plan.quorum(id, dependency));
+    }
+
+    /**
+     * Export the deployment as trace events. Every verticle, or every
+     * instance when they are deployed one by one, is a span from its start to
+     * its completion, preceded by the time it waited in the queue. Flow
+     * arrows lead from a dependency to its dependents. Event loop and worker
+     * verticles are shown as two processes; the spans are packed into lanes
+     * which never overlap.
+     *
+     * @return The trace as JSON, with timestamps in microseconds
+     */
+    public JsonObject toTrace() {
+        List<Span> spans = new ArrayList<>();
+        timings.forEach((id, timing) -> {
+            if (timing.started == 0) {
+                return;
+            }
+            int instances = plan.contains(id) ? plan.instances(id) : 1;
+            boolean individually = plan.contains(id) && plan.deployInstancesIndividually(id);
+            if (individually && timing.instances.size() > 0) {
+                for (int i = 0; i < timing.instances.size(); i++) {
+                    spans.add(new Span(id, id + " #" + (i + 1), i == 0 ? timing.queued : timing.started,
+                            timing.started, timing.instances.get(i), 1));
+                }
+            } else {
+                long finish = timing.completed != 0 ? timing.completed : end;
+                spans.add(new Span(id, id, timing.queued, timing.started, finish, instances));
+            }
+        });
+        spans.sort(Comparator.comparingLong(span -> span.begin));
+
+        // pack the spans into lanes per process
+        Map<Integer, List<Long>> lanes = new HashMap<>();
+        Map<String, Span> first = new HashMap<>();
+        for (Span span : spans) {
+            int pid = plan.contains(span.id) && plan.definition(span.id).getBoolean("worker", false) ? 2 : 1;
+            List<Long> ends = lanes.computeIfAbsent(pid, key -> new ArrayList<>());
+            int lane = 0;
+            while (lane < ends.size() && ends.get(lane) > span.begin) {
+                lane++;
+            }
+            if (lane == ends.size()) {
+                ends.add(span.end);
+            } else {
+                ends.set(lane, span.end);
+            }
+            span.pid = pid;
+            span.tid = lane + 1;
+            first.putIfAbsent(span.id, span);
+        }
+
+        JsonArray events = new JsonArray();
+        events.add(metadata("process_name", 1, 0, "Event loop verticles"));
+        events.add(metadata("process_name", 2, 0, "Worker verticles"));
+        lanes.forEach((pid, ends) -> {
+            for (int lane = 1; lane <= ends.size(); lane++) {
+                events.add(metadata("thread_name", pid, lane, "Lane " + lane));
+            }
+        });
+
+        for (Span span : spans) {
+            if (span.started > span.begin) {
+                events.add(complete(span, "wait", span.id + " (waiting)", span.begin, span.started));
+            }
+            events.add(complete(span, "start", span.name, span.started, span.end).
+                    put("args", new JsonObject().put("instances", span.instances)));
+        }
+
+        // flow arrows from the moment a dependency was available
+        long flow = 0;
+        for (Span span : first.values()) {
+            for (String dependency : plan.dependencies(span.id)) {
+                Span from = first.get(dependency);
+                if (from == null) {
+                    continue;
+                }
+                flow++;
+                long available = from.started + duration(dependency, plan.quorum(span.id, dependency));
+                events.add(flowEvent("s", from, flow, Math.min(available, from.end)));
+                events.add(flowEvent("f", span, flow, span.started).put("bp", "e"));
+            }
+        }
+
+        return new JsonObject()
+                .put("traceEvents", events)
+                .put("displayTimeUnit", "ms");
+    }
+
+    private JsonObject metadata(final String name, final int pid, final int tid, final String value) {
+        return new JsonObject()
+                .put("name", name)
+                .put("ph", "M")
+                .put("pid", pid)
+                .put("tid", tid)
+                .put("args", new JsonObject().put("name", value));
+    }
+
+    private JsonObject complete(final Span span, final String category, final String name,
+            final long from, final long to) {
+        return new JsonObject()
+                .put("name", name)
+                .put("cat", category)
+                .put("ph", "X")
+                .put("pid", span.pid)
+                .put("tid", span.tid)
+                .put("ts", micros(from))
+                .put("dur", Math.max(0, (to - from) / 1000));
+    }
+
+    private JsonObject flowEvent(final String phase, final Span span, final long id, final long timestamp) {
+        return new JsonObject()
+                .put("name", "dependsOn")
+                .put("cat", "dependency")
+                .put("ph", phase)
+                .put("id", id)
+                .put("pid", span.pid)
+                .put("tid", span.tid)
+                .put("ts", micros(timestamp));
+    }
+
+    private long micros(final long timestamp) {
+        return (timestamp - begin) / 1000;
+    }
+
+    private long relative(final long timestamp) {
+        return timestamp == 0 ? 0 : timestamp - begin;
+    }
+
+    /**
+     * The recorded moments of a single verticle.
+     */
+    private static class Timing {
+
+        private long queued;
+
+        private long started;
+
+        private long completed;
+
+        private final List<Long> instances = new ArrayList<>();
+
+        private long eventLoopBlocked;
+    }
+
+    /**
+     * A verticle or an instance in the trace.
+     */
+    private static class Span {
+
+        private final String id;
+
+        private final String name;
+
+        private final long begin;
+
+        private final long started;
+
+        private final long end;
+
+        private final int instances;
+
+        private int pid;
+
+        private int tid;
+
+        private Span(final String id, final String name, final long queued, final long started,
+                final long end, final int instances) {
+            this.id = id;
+            this.name = name;
+            this.begin = queued != 0 ? queued : started;
+            this.started = started;
+            this.end = end;
+            this.instances = instances;
+        }
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ The MIT License (MIT)
+
+ Copyright (c) 2015 Neofonie GmbH
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in all
+ copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ SOFTWARE.
+ */
+package de.neofonie.deployer;
+
+import io.netty.util.concurrent.EventExecutor;
+import io.vertx.core.Vertx;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Samples the latency of the event loops while verticles are deployed. A
+ * watchdog thread posts a probe task to every event loop in a fixed
+ * interval. While the probe of a loop is still waiting after an interval,
+ * the loop is blocked: the stack of the loop thread is sampled and the
+ * blocked time is attributed to the deploying verticle whose class appears
+ * in the stack.
+ *
+ * The probe only observes the loops, it never runs code of the deployer on
+ * them besides the probe tasks.
+ *
+ * @author jan.decooman@neofonie.de
+ */
+class EventLoopProbe {
+
+    private static final Logger LOG = Logger.getLogger(EventLoopProbe.class.getName());
+
+    /**
+     * The id to which blocked time without a known verticle on the stack is
+     * attributed.
+     */
+    static final String UNATTRIBUTED = "";
+
+    private final List<Loop> loops = new ArrayList<>();
+
+    private final Map<String, String> classes;
+
+    private final Map<String, Long> blocked = new ConcurrentHashMap<>();
+
+    private final long interval;
+
+    private volatile boolean active = true;
+
+    private final Thread watchdog;
+
+    /**
+     * Start probing all event loops of the Vertx instance.
+     *
+     * @param vertx The Vertx instance
+     * @param interval The probe interval in milliseconds
+     * @param classes The ids of the deploying verticles by their class name
+     */
+    EventLoopProbe(final Vertx vertx, final long interval, final Map<String, String> classes) {
+        this.interval = TimeUnit.MILLISECONDS.toNanos(interval);
+        this.classes = new HashMap<>(classes);
+        for (EventExecutor executor : vertx.nettyEventLoopGroup()) {
+            loops.add(new Loop(executor));
+        }
+        watchdog = new Thread(this::watch, "deployer-event-loop-probe");
+        watchdog.setDaemon(true);
+        watchdog.start();
+    }
+
+    /**
+     * Stop probing.
+     *
+     * @return The blocked time in nanoseconds per verticle id, the time which
+     * could not be attributed is found under {@link #UNATTRIBUTED}
+     */
+    Map<String, Long> stop() {
+        active = false;
+        watchdog.interrupt();
+        return Collections.unmodifiableMap(new HashMap<>(blocked));
+    }
+
+    private void watch() {
+        while (active) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(interval);
+            } catch (InterruptedException e) {
+                return;
+            }
+            long now = System.nanoTime();
+            loops.forEach(loop -> loop.sample(now));
+        }
+    }
+
+    /**
+     * @param classes The ids of the verticles by their class name
+     * @param stack The stack of an event loop thread
+     * @return The id of the innermost verticle on the stack, or
+     * {@link #UNATTRIBUTED}
+     */
+    static String attribute(final Map<String, String> classes, final StackTraceElement[] stack) {
+        for (StackTraceElement frame : stack) {
+            String className = frame.getClassName();
+            int nested = className.indexOf('$');
+            String id = classes.get(nested < 0 ? className : className.substring(0, nested));
+            if (id != null) {
+                return id;
+            }
+        }
+        return UNATTRIBUTED;
+    }
+
+    /**
+     * Look up the threads of the event loops by running a task on every loop.
+     * The map is filled as the tasks run, a loop which has not run its task
+     * yet is missing from it.
+     *
+     * @param loops The event loops
+     * @return The threads by their event loop
+     */
+    static Map<EventExecutor, Thread> threads(final Iterable<EventExecutor> loops) {
+        Map<EventExecutor, Thread> threads = new ConcurrentHashMap<>();
+        for (EventExecutor loop : loops) {
+            try {
+                loop.execute(() -> threads.put(loop, Thread.currentThread()));
+            } catch (RuntimeException e) {
+                // the loop is shutting down
+            }
+        }
+        return threads;
+    }
+
+    /**
+     * The probe state of one event loop.
+     */
+    private class Loop {
+
+        private final EventExecutor executor;
+
+        private volatile Thread thread;
+
+        private volatile long posted = 0;
+
+        private long sampled = 0;
+
+        /**
+         * The first probe is posted right away, it tells the thread of the
+         * loop before a verticle can block it.
+         */
+        private Loop(final EventExecutor executor) {
+            this.executor = executor;
+            post(System.nanoTime());
+        }
+
+        private void sample(final long now) {
+            if (posted == 0) {
+                post(now);
+            } else if (now - posted > interval && thread != null) {
+                String id = attribute(classes, thread.getStackTrace());
+                blocked.merge(id, now - sampled, Long::sum);
+                sampled = now;
+                LOG.log(Level.FINE, "{0} blocked for {1} ms by ''{2}''",
+                        new Object[]{thread.getName(), TimeUnit.NANOSECONDS.toMillis(now - posted), id});
+            }
+        }
+
+        private void post(final long now) {
+            posted = now;
+            sampled = now;
+            try {
+                executor.execute(() -> {
+                    thread = Thread.currentThread();
+                    posted = 0;
+                });
+            } catch (RuntimeException e) {
+                // the loop is shutting down
+                posted = 0;
+            }
+        }
+    }
+}
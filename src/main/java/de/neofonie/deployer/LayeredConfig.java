@@ -0,0 +1,78 @@
+/*
+ The MIT License (MIT)
+
+ Copyright (c) 2015 Neofonie GmbH
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in all
+ copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ SOFTWARE.
+ */
+package de.neofonie.deployer;
+
+import io.vertx.core.json.JsonObject;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Layers the configuration of a verticle on top of the global
+ * configuration. Objects are merged recursively, so a nested override keeps
+ * its sibling keys. Subtrees which are not overridden are not copied, the
+ * merged configuration shares them with the global configuration.
+ *
+ * The merged configuration must be treated as read-only. Vert.x copies the
+ * configuration once for every call of deployVerticle, so a verticle never
+ * sees the subtrees shared with the global configuration. The instances of
+ * one deployment share that copy, though.
+ *
+ * @author jan.decooman@neofonie.de
+ */
+final class LayeredConfig {
+
+    private LayeredConfig() {
+    }
+
+    /**
+     * Merge the overlay into the base without modifying one of them. Values
+     * of the overlay take precedence, unless both values are objects which
+     * are merged the same way.
+     *
+     * @param base The lower layer
+     * @param overlay The upper layer
+     * @return A new JsonObject, or the base when there is nothing to overlay
+     */
+    static JsonObject merge(final JsonObject base, final JsonObject overlay) {
+        if (overlay == null || overlay.isEmpty()) {
+            return base;
+        }
+        if (base == null || base.isEmpty()) {
+            return overlay;
+        }
+        // JsonObject.put copies nested objects, the map is filled directly
+        // to share the subtrees instead.
+        final Map<String, Object> merged = new LinkedHashMap<>(base.getMap());
+        for (String key : overlay.fieldNames()) {
+            Object lower = base.getValue(key);
+            Object upper = overlay.getValue(key);
+            if (lower instanceof JsonObject && upper instanceof JsonObject) {
+                merged.put(key, merge((JsonObject) lower, (JsonObject) upper));
+            } else {
+                merged.put(key, upper);
+            }
+        }
+        return new JsonObject(merged);
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ The MIT License (MIT)
+
+ Copyright (c) 2015 Neofonie GmbH
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in all
+ copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ SOFTWARE.
+ */
+package de.neofonie.deployer;
+
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.eventbus.MessageConsumer;
+import io.vertx.core.eventbus.ReplyException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Placeholders for the lazy verticles of a plan. A placeholder consumes the
+ * "address" of a lazy verticle until the first message arrives. Then the
+ * verticle is deployed with its dependencies, the placeholder is removed and
+ * the buffered messages are sent again to the real verticle. Replies of the
+ * verticle are passed back to the original senders.
+ *
+ * Without a reply address the placeholder cannot tell a published message
+ * from a sent one, buffered messages are always sent to a single consumer.
+ * When the deployment fails, the buffered messages are failed and the next
+ * message tries again.
+ *
+ * @author jan.decooman@neofonie.de
+ */
+class LazyVerticles {
+
+    private static final Logger LOG = Logger.getLogger(LazyVerticles.class.getName());
+
+    protected final static int DEPLOYMENT_FAILED = 503;
+
+    private final Vertx vertx;
+
+    private final DeploymentEngine engine;
+
+    private final Handler<List<String>> deployedHandler;
+
+    private final Map<String, Placeholder> placeholders = new HashMap<>();
+
+    /**
+     * @param vertx The Vertx instance
+     * @param engine The engine which deploys the verticles
+     * @param deployedHandler Receives the ids of the verticles deployed on
+     * demand
+     */
+    LazyVerticles(final Vertx vertx, final DeploymentEngine engine, final Handler<List<String>> deployedHandler) {
+        this.vertx = vertx;
+        this.engine = engine;
+        this.deployedHandler = deployedHandler;
+    }
+
+    /**
+     * Register a placeholder for every lazy verticle of the current plan
+     * which is not deployed yet, and remove the placeholders of verticles
+     * which are no longer lazy.
+     */
+    void register() {
+        DeploymentPlan plan = engine.plan();
+        new ArrayList<>(placeholders.keySet()).forEach(id -> {
+            Placeholder placeholder = placeholders.get(id);
+            if (!plan.contains(id) || !plan.lazy(id)
+                    || !placeholder.address.equals(plan.address(id))) {
+                placeholders.remove(id).consumer.unregister();
+            }
+        });
+        plan.ids().forEach(id -> {
+            String address = plan.address(id);
+            if (plan.lazy(id) && address != null && !placeholders.containsKey(id)
+                    && !engine.isDeployed(id)) {
+                LOG.log(Level.INFO, "''{0}'' is deployed on the first message to {1}", new Object[]{id, address});
+                placeholders.put(id, new Placeholder(id, address));
+            }
+        });
+    }
+
+    /**
+     * @return The ids of the lazy verticles which are not deployed yet
+     */
+    List<String> waiting() {
+        return new ArrayList<>(placeholders.keySet());
+    }
+
+    /**
+     * The consumer of a lazy verticle until it is deployed.
+     */
+    private class Placeholder {
+
+        private final String id;
+
+        private final String address;
+
+        private final MessageConsumer<Object> consumer;
+
+        private final List<Message<Object>> buffer = new ArrayList<>();
+
+        private boolean deploying = false;
+
+        private Placeholder(final String id, final String address) {
+            this.id = id;
+            this.address = address;
+            this.consumer = vertx.eventBus().consumer(address, this::handle);
+        }
+
+        private void handle(final Message<Object> message) {
+            buffer.add(message);
+            if (deploying) {
+                return;
+            }
+            deploying = true;
+            engine.deployOnDemand(id, result -> {
+                if (result.succeeded()) {
+                    deployedHandler.handle(result.result());
+                    placeholders.remove(id, this);
+                    // messages arriving until the placeholder is gone are
+                    // still buffered and replayed as well
+                    consumer.unregister(unregistered -> replay());
+                } else {
+                    LOG.log(Level.SEVERE, "Deploying ''{0}'' on demand failed: {1}",
+                            new Object[]{id, result.cause().getMessage()});
+                    deploying = false;
+                    buffer.forEach(buffered -> buffered.fail(DEPLOYMENT_FAILED, result.cause().getMessage()));
+                    buffer.clear();
+                }
+            });
+        }
+
+        private void replay() {
+            LOG.log(Level.FINE, "Replaying {0} messages to {1}", new Object[]{buffer.size(), address});
+            buffer.forEach(message -> {
+                DeliveryOptions options = new DeliveryOptions().setHeaders(message.headers());
+                if (message.replyAddress() == null) {
+                    vertx.eventBus().send(address, message.body(), options);
+                } else {
+                    vertx.eventBus().send(address, message.body(), options, reply -> {
+                        if (reply.succeeded()) {
+                            message.reply(reply.result().body(),
+                                    new DeliveryOptions().setHeaders(reply.result().headers()));
+                        } else if (reply.cause() instanceof ReplyException) {
+                            ReplyException cause = (ReplyException) reply.cause();
+                            message.fail(cause.failureCode(), cause.getMessage());
+                        } else {
+                            message.fail(-1, reply.cause().getMessage());
+                        }
+                    });
+                }
+            });
+            buffer.clear();
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ The MIT License (MIT)
+
+ Copyright (c) 2015 Neofonie GmbH
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in all
+ copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ SOFTWARE.
+ */
+package de.neofonie.deployer;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.eventbus.MessageConsumer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import java.util.List;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Manages the deployed verticles at runtime through a local event bus
+ * address. A request is a JSON object with an "action" and, except for
+ * "list", the "id" of a verticle:
+ *
+ * <ul>
+ * <li>"list" replies with the instances and deployment ids of every
+ * verticle of the plan</li>
+ * <li>"scale" changes the number of running instances to "instances"</li>
+ * <li>"redeploy" deploys the verticle and its dependents again</li>
+ * <li>"roll" replaces the instances of the verticle batch by batch, its
+ * dependents keep running</li>
+ * <li>"undeploy" undeploys the verticle and its dependents</li>
+ * </ul>
+ *
+ * An invalid request fails with {@link #BAD_REQUEST}, a request the engine
+ * refuses or which fails with {@link #REFUSED}.
+ *
+ * @author jan.decooman@neofonie.de
+ */
+class ManagementApi {
+
+    private static final Logger LOG = Logger.getLogger(ManagementApi.class.getName());
+
+    protected final static String ACTION = "action";
+
+    protected final static String INSTANCES = "instances";
+
+    protected final static int BAD_REQUEST = 400;
+
+    protected final static int REFUSED = 409;
+
+    private final DeploymentEngine engine;
+
+    private final Handler<List<String>> changedHandler;
+
+    private final MessageConsumer<JsonObject> consumer;
+
+    /**
+     * Start consuming the management requests.
+     *
+     * @param vertx The Vertx instance
+     * @param address The local address to consume
+     * @param engine The engine which deployed the verticles
+     * @param changedHandler Receives the ids of the deployed verticles after
+     * a successful request
+     */
+    ManagementApi(final Vertx vertx, final String address, final DeploymentEngine engine,
+            final Handler<List<String>> changedHandler) {
+        this.engine = engine;
+        this.changedHandler = changedHandler;
+        this.consumer = vertx.eventBus().localConsumer(address, this::handle);
+    }
+
+    /**
+     * Stop consuming the management requests.
+     */
+    void unregister() {
+        consumer.unregister();
+    }
+
+    private void handle(final Message<JsonObject> message) {
+        JsonObject request = message.body();
+        String action = request == null ? null : request.getString(ACTION);
+        String id = request == null ? null : request.getString(DeploymentPlan.ID);
+        if ("list".equals(action)) {
+            message.reply(list());
+        } else if (id == null || !engine.plan().contains(id)) {
+            message.fail(BAD_REQUEST, "Unknown verticle: " + id);
+        } else if ("scale".equals(action)) {
+            Integer instances = request.getInteger(INSTANCES);
+            if (instances == null) {
+                message.fail(BAD_REQUEST, "Missing \"" + INSTANCES + "\"");
+            } else {
+                engine.scale(id, instances, result -> reply(message, action, result,
+                        running -> new JsonObject().put(DeploymentPlan.ID, id).put(INSTANCES, running)));
+            }
+        } else if ("redeploy".equals(action)) {
+            engine.redeploy(id, result -> reply(message, action, result,
+                    ids -> new JsonObject().put("redeployed", new JsonArray(ids))));
+        } else if ("roll".equals(action)) {
+            engine.roll(id, result -> reply(message, action, result,
+                    replaced -> new JsonObject().put(DeploymentPlan.ID, id).put("replaced", replaced)));
+        } else if ("undeploy".equals(action)) {
+            engine.undeploy(id, result -> reply(message, action, result,
+                    ids -> new JsonObject().put("undeployed", new JsonArray(ids))));
+        } else {
+            message.fail(BAD_REQUEST, "Unknown action: " + action);
+        }
+    }
+
+    /**
+     * @return The state of every verticle of the plan
+     */
+    private JsonObject list() {
+        JsonObject verticles = new JsonObject();
+        engine.plan().ids().forEach(id -> verticles.put(id, new JsonObject()
+                .put("deployed", engine.isDeployed(id))
+                .put(INSTANCES, engine.instances(id))
+                .put("deploymentIds", new JsonArray(engine.deploymentIds(id)))));
+        return new JsonObject().put(DeploymentPlan.VERTICLES, verticles);
+    }
+
+    /**
+     * Reply to a request with the outcome of the engine.
+     *
+     * @param message The request
+     * @param action The action of the request
+     * @param result The result of the engine
+     * @param body Turns the result into the body of the reply
+     */
+    private <T> void reply(final Message<JsonObject> message, final String action,
+            final AsyncResult<T> result, final Function<T, JsonObject> body) {
+        if (result.failed()) {
+            LOG.log(Level.WARNING, "Management request ''{0}'' failed: {1}",
+                    new Object[]{action, result.cause().getMessage()});
+            message.fail(REFUSED, result.cause().getMessage());
+        } else {
+            JsonObject reply = body.apply(result.result());
+            LOG.log(Level.INFO, "Management request ''{0}'' done: {1}", new Object[]{action, reply});
+            changedHandler.handle(engine.deployed());
+            message.reply(reply);
+        }
+    }
+}
\ No newline at end of file
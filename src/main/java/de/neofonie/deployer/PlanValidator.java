@@ -0,0 +1,64 @@
+/*
+ The MIT License (MIT)
+
+ Copyright (c) 2015 Neofonie GmbH
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in all
+ copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ SOFTWARE.
+ */
+package de.neofonie.deployer;
+
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.JsonObject;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * Validates deployer configurations without starting Vert.x, for example in
+ * a build pipeline. The exit code is 1 when a configuration is invalid.
+ *
+ * <pre>
+ * java -cp vertx3-deployer.jar:vertx-core.jar de.neofonie.deployer.PlanValidator deployer.json
+ * </pre>
+ *
+ * @author jan.decooman@neofonie.de
+ */
+public class PlanValidator {
+
+    /**
+     * @param args The paths of the configuration files
+     */
+    public static void main(final String[] args) {
+        boolean valid = true;
+        for (String file : args) {
+            try {
+                String content = new String(Files.readAllBytes(Paths.get(file)), StandardCharsets.UTF_8);
+                List<String> problems = DeploymentPlan.validate(new JsonObject(content));
+                problems.forEach(problem -> System.err.println(file + ": " + problem));
+                valid &= problems.isEmpty();
+            } catch (IOException | DecodeException e) {
+                System.err.println(file + ": " + e.getMessage());
+                valid = false;
+            }
+        }
+        System.exit(valid ? 0 : 1);
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ The MIT License (MIT)
+
+ Copyright (c) 2015 Neofonie GmbH
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in all
+ copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ SOFTWARE.
+ */
+package de.neofonie.deployer;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+/**
+ * Prunes the configuration to the verticles a node role needs. Verticles
+ * carry their roles as "profiles"; the active profiles are taken from the
+ * system property {@link #PROPERTY} or the environment variable
+ * {@link #ENVIRONMENT}, separated by commas.
+ *
+ * With an active profile only the verticles tagged with it are selected,
+ * together with everything they depend on, directly or transitively.
+ * Verticles without profiles are deployed only as such a dependency. Without
+ * an active profile the configuration is deployed as a whole. An active
+ * profile which selects no verticle is most likely a typo, so such a
+ * configuration is not deployed at all, see {@link #validate}.
+ *
+ * @author jan.decooman@neofonie.de
+ */
+class Profiles {
+
+    private static final Logger LOG = Logger.getLogger(Profiles.class.getName());
+
+    protected final static String PROFILES = "profiles";
+
+    public final static String PROPERTY = "deployer.profile";
+
+    public final static String ENVIRONMENT = "DEPLOYER_PROFILE";
+
+    private Profiles() {
+    }
+
+    /**
+     * @return The active profiles, empty when no profile is set
+     */
+    static Set<String> active() {
+        String value = System.getProperty(PROPERTY);
+        return parse(value != null ? value : System.getenv(ENVIRONMENT));
+    }
+
+    /**
+     * @param value Profiles separated by commas, or null
+     * @return The profiles
+     */
+    static Set<String> parse(final String value) {
+        if (value == null) {
+            return Collections.emptySet();
+        }
+        return Arrays.stream(value.split(",")).
+                map(String::trim).
+                filter(profile -> !profile.isEmpty()).
+                collect(Collectors.toCollection(LinkedHashSet::new));
+    }
+
+    /**
+     * @param definition The definition of a verticle
+     * @return The "profiles" of the verticle, a single profile may be given
+     * as a string
+     */
+    static Set<String> of(final JsonObject definition) {
+        Object profiles = definition.getValue(PROFILES);
+        if (profiles instanceof String) {
+            return Collections.singleton((String) profiles);
+        }
+        if (profiles instanceof JsonArray) {
+            return ((List<?>) ((JsonArray) profiles).getList()).stream().
+                    map(String::valueOf).
+                    collect(Collectors.toSet());
+        }
+        return Collections.emptySet();
+    }
+
+    /**
+     * Check that every active profile selects at least one verticle.
+     *
+     * @param configuration The deployer configuration
+     * @param active The active profiles
+     * @return A description of every active profile without a verticle,
+     * empty when the profiles are valid
+     */
+    static List<String> validate(final JsonObject configuration, final Set<String> active) {
+        DeploymentPlan plan = new DeploymentPlan(configuration);
+        Set<String> used = plan.ids().stream().
+                flatMap(id -> of(plan.definition(id)).stream()).
+                collect(Collectors.toSet());
+        return active.stream().
+                filter(profile -> !used.contains(profile)).
+                map(profile -> "No verticle has the active profile '" + profile + "'").
+                collect(Collectors.toList());
+    }
+
+    /**
+     * Remove the verticles which are not needed by the active profiles.
+     *
+     * @param configuration The deployer configuration
+     * @param active The active profiles
+     * @return The configuration with the selected verticles and their
+     * dependencies, the configuration itself without an active profile
+     */
+    static JsonObject prune(final JsonObject configuration, final Set<String> active) {
+        if (active.isEmpty()) {
+            return configuration;
+        }
+        DeploymentPlan plan = new DeploymentPlan(configuration);
+        Set<String> selected = plan.ids().stream().
+                filter(id -> !Collections.disjoint(of(plan.definition(id)), active)).
+                collect(Collectors.toCollection(LinkedHashSet::new));
+        Set<String> needed = plan.withDependencies(selected);
+        LOG.log(Level.INFO, "Profiles {0} select {1} of {2} verticles: {3}",
+                new Object[]{active, needed.size(), plan.size(), needed});
+
+        JsonObject verticles = configuration.getJsonObject(DeploymentPlan.VERTICLES, new JsonObject());
+        JsonObject pruned = new JsonObject();
+        verticles.fieldNames().stream().
+                filter(needed::contains).
+                forEach(id -> pruned.put(id, verticles.getValue(id)));
+        return configuration.copy().put(DeploymentPlan.VERTICLES, pruned);
+    }
+}
\ No newline at end of file
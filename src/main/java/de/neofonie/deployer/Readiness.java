@@ -0,0 +1,301 @@
+/*
+ The MIT License (MIT)
+
+ Copyright (c) 2015 Neofonie GmbH
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in all
+ copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ SOFTWARE.
+ */
+package de.neofonie.deployer;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.json.JsonObject;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Publishes the progress of the deployment and tells when the application
+ * can take traffic. The application is ready as soon as the
+ * {@link DeploymentPlan#critical()} verticles are deployed, while the other
+ * verticles are still starting; without critical verticles it is ready when
+ * the deployment has finished.
+ *
+ * Every completed verticle publishes the completed and pending counts on the
+ * progress address; the counts are kept up to date as the verticles
+ * complete. A clustered event bus publishes the counts to every node which
+ * registered the address, so only a localConsumer sees the progress of this
+ * node alone. The endpoint on the "readinessPort" adds the estimated
+ * remaining time, the longest chain of pending verticles weighted with
+ * their start durations minus the time they are already starting. Once
+ * ready, the "readyFile" of the plan is written and the endpoint answers
+ * with 200 instead of 503.
+ *
+ * @author jan.decooman@neofonie.de
+ */
+class Readiness {
+
+    private static final Logger LOG = Logger.getLogger(Readiness.class.getName());
+
+    protected final static int READY = 200;
+
+    protected final static int NOT_READY = 503;
+
+    private final Vertx vertx;
+
+    private final DeploymentEngine engine;
+
+    private final String address;
+
+    private final long begin = System.currentTimeMillis();
+
+    private HttpServer server = null;
+
+    private boolean ready = false;
+
+    private DeploymentPlan tracked = null;
+
+    private Set<String> critical = Collections.emptySet();
+
+    private final Set<String> pending = new HashSet<>();
+
+    private long total = 0;
+
+    private long criticalPending = 0;
+
+    /**
+     * @param vertx The Vertx instance
+     * @param engine The engine deploying the plan
+     * @param address The local address to publish the progress on
+     */
+    Readiness(final Vertx vertx, final DeploymentEngine engine, final String address) {
+        this.vertx = vertx;
+        this.engine = engine;
+        this.address = address;
+    }
+
+    /**
+     * Start the readiness endpoint, when the plan has a "readinessPort", and
+     * follow the progress of the engine.
+     */
+    void start() {
+        start(listening -> LOG.log(Level.FINE, "Readiness started: {0}", listening.succeeded()));
+    }
+
+    /**
+     * Start the readiness endpoint, when the plan has a "readinessPort", and
+     * follow the progress of the engine.
+     *
+     * @param handler The handler called when the endpoint listens
+     */
+    void start(final Handler<AsyncResult<Void>> handler) {
+        track();
+        engine.progressHandler(this::completed);
+        int port = engine.plan().readinessPort();
+        if (port == 0) {
+            handler.handle(Future.succeededFuture());
+            return;
+        }
+        server = vertx.createHttpServer().requestHandler(request -> request.response().
+                setStatusCode(ready ? READY : NOT_READY).
+                putHeader("Content-Type", "application/json").
+                end(progress().encode()));
+        server.listen(port, listening -> {
+            if (listening.failed()) {
+                LOG.log(Level.WARNING, "Readiness endpoint not started on port {0}: {1}",
+                        new Object[]{port, listening.cause().getMessage()});
+                handler.handle(Future.failedFuture(listening.cause()));
+            } else {
+                LOG.log(Level.INFO, "Readiness endpoint listening on port {0}", port);
+                handler.handle(Future.succeededFuture());
+            }
+        });
+    }
+
+    /**
+     * @return true once the critical verticles are deployed
+     */
+    boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * The deployment has finished successfully, the application is ready
+     * even without critical verticles.
+     */
+    void deployed() {
+        ready();
+    }
+
+    /**
+     * The deployment failed or the application is stopping.
+     */
+    void notReady() {
+        if (ready) {
+            ready = false;
+            LOG.info("Application no longer ready");
+            String readyFile = engine.plan().readyFile();
+            if (readyFile != null) {
+                vertx.fileSystem().delete(readyFile, deleted -> {
+                    if (deleted.failed()) {
+                        LOG.log(Level.WARNING, "Ready file not deleted: {0}", deleted.cause().getMessage());
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Stop the readiness endpoint.
+     */
+    void close() {
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    /**
+     * Take the pending and critical verticles from the plan of the engine,
+     * again only when a redeployment has replaced the plan.
+     */
+    private void track() {
+        DeploymentPlan plan = engine.plan();
+        if (plan == tracked) {
+            return;
+        }
+        tracked = plan;
+        critical = plan.critical();
+        pending.clear();
+        total = 0;
+        plan.ids().stream().filter(id -> !plan.lazy(id)).forEach(id -> {
+            total++;
+            if (!engine.isDeployed(id) && !engine.isAbandoned(id)) {
+                pending.add(id);
+            }
+        });
+        criticalPending = critical.stream().filter(pending::contains).count();
+    }
+
+    /**
+     * @return The completed and pending verticles of the whole plan and of
+     * its critical part
+     */
+    private JsonObject counts() {
+        track();
+        return new JsonObject()
+                .put("ready", ready)
+                .put("elapsed", System.currentTimeMillis() - begin)
+                .put("completed", total - pending.size())
+                .put("pending", pending.size())
+                .put("criticalCompleted", critical.size() - criticalPending)
+                .put("criticalPending", criticalPending);
+    }
+
+    /**
+     * @return The completed and pending verticles of the whole plan and of
+     * its critical part, with the estimated remaining milliseconds
+     */
+    JsonObject progress() {
+        JsonObject progress = counts();
+        Map<String, Long> finish = new HashMap<>();
+        long eta = 0;
+        long criticalEta = 0;
+        for (String id : pending) {
+            long remaining = finish(id, pending, finish);
+            eta = Math.max(eta, remaining);
+            if (critical.contains(id)) {
+                criticalEta = Math.max(criticalEta, remaining);
+            }
+        }
+        return progress
+                .put("eta", eta)
+                .put("criticalEta", criticalEta);
+    }
+
+    /**
+     * @param id A pending verticle
+     * @param pending All pending verticles
+     * @param finish The estimates computed so far
+     * @return The estimated milliseconds until the verticle is deployed
+     */
+    private long finish(final String id, final Set<String> pending, final Map<String, Long> finish) {
+        Long known = finish.get(id);
+        if (known != null) {
+            return known;
+        }
+        DeploymentPlan plan = engine.plan();
+        long start = 0;
+        for (String dependency : plan.dependencies(id)) {
+            if (pending.contains(dependency)) {
+                start = Math.max(start, finish(dependency, pending, finish));
+            }
+        }
+        DeploymentReport report = engine.report();
+        long running = report == null ? 0 : report.running(id);
+        long estimate = start + Math.max(0, plan.startDuration(id) - running);
+        finish.put(id, estimate);
+        return estimate;
+    }
+
+    /**
+     * Count the verticle as completed, publish the progress and check the
+     * critical verticles.
+     *
+     * @param id The verticle which has been deployed
+     */
+    private void completed(final String id) {
+        track();
+        if (pending.remove(id) && critical.contains(id)) {
+            criticalPending--;
+        }
+        JsonObject progress = counts();
+        LOG.log(Level.FINE, "Deployed ''{0}'': {1}", new Object[]{id, progress.encode()});
+        vertx.eventBus().publish(address, progress);
+        if (!critical.isEmpty() && criticalPending == 0) {
+            ready();
+        }
+    }
+
+    private void ready() {
+        if (ready) {
+            return;
+        }
+        ready = true;
+        JsonObject progress = counts();
+        LOG.log(Level.INFO, "Application ready for traffic after {0} ms, {1} verticles still pending",
+                new Object[]{progress.getLong("elapsed"), progress.getLong("pending")});
+        vertx.eventBus().publish(address, progress);
+        String readyFile = engine.plan().readyFile();
+        if (readyFile != null) {
+            vertx.fileSystem().writeFile(readyFile, Buffer.buffer(progress.encode()), written -> {
+                if (written.failed()) {
+                    LOG.log(Level.WARNING, "Ready file not written: {0}", written.cause().getMessage());
+                }
+            });
+        }
+    }
+}
\ No newline at end of file
@@ -27,6 +27,8 @@ import io.vertx.core.AbstractVerticle;
 import io.vertx.core.AsyncResult;
 import io.vertx.core.Future;
 
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -34,6 +36,11 @@ import java.util.logging.Logger;
  * StartVerticle is a predefined start verticle for the application. It start
  * the deployer automatically and exists when the deployment was not
  * successful. On failure, exitcode 1 is returned.
+ *
+ * With the system property "deployer.training" set to true, the application
+ * is a training run: the verticles are deployed and undeployed again and the
+ * JVM exits with exitcode 0. Started with -XX:DumpLoadedClassList, the run
+ * records the classes for an AppCDS archive.
  * 
  * @author jan.decooman@neofonie.de, jonas.muecke@neofonie.de
  */
@@ -43,6 +50,8 @@ public class StartVerticle extends AbstractVerticle {
 
     private String deployerId = null;
 
+    private DeployerVerticle deployer = null;
+
     /**
      * Initialize the verticle. This verticle attaches a shutdown-hook to 
      * clean up initialized verticles.
@@ -52,30 +61,39 @@ public class StartVerticle extends AbstractVerticle {
     @Override
     public void start(final Future<Void> startedResult) {
         Runtime.getRuntime().addShutdownHook(new Thread(this::undeploy));
-        vertx.deployVerticle(new DeployerVerticle(), this::handleDeployResult);
+        deployer = new DeployerVerticle();
+        vertx.deployVerticle(deployer, this::handleDeployResult);
     }
 
     /**
-     * Undeploy the verticles.
+     * Undeploy the verticles. The verticles are stopped in reverse dependency
+     * order, afterwards the deployer itself is undeployed. This method returns
+     * as soon as the deployer has stopped.
      */
     private void undeploy() {
         if (this.deployerId != null) {
-            vertx.undeploy(this.deployerId);
+            CountDownLatch latch = new CountDownLatch(1);
+            deployer.undeployVerticles(result -> vertx.undeploy(deployerId, undeployed -> latch.countDown()));
+            waitForExit(latch, deployer.shutdownTimeout());
         }
-        waitForExit();
     }
 
     /**
-     * Give the JVM 5 seconds to shut down. When the application cannot stop
-     * within 5 seconds, shut it down.
+     * Wait until the verticles are undeployed. When the application cannot
+     * stop within the shutdown timeout, shut it down.
+     *
+     * @param latch The latch released after the undeployment
+     * @param timeout The maximum time to wait in milliseconds
      */
-    private void waitForExit() {
+    private void waitForExit(final CountDownLatch latch, final long timeout) {
         if (LOG != null) {
             LOG.info("Waiting to exit....");
         }
 
         try {
-            Thread.sleep(5000);
+            if (!latch.await(timeout, TimeUnit.MILLISECONDS) && LOG != null) {
+                LOG.log(Level.WARNING, "Verticles not stopped within {0} ms", timeout);
+            }
         } catch (InterruptedException ex) {
             if (LOG != null) {
                 LOG.log(Level.SEVERE, "Error during shutdown: " + ex.getMessage(), ex);
@@ -94,6 +112,9 @@ public class StartVerticle extends AbstractVerticle {
                     reply.cause().getMessage(), reply.cause());
             vertx.close();
             System.exit(1);
+        } else if (Boolean.getBoolean(DeployerVerticle.TRAINING)) {
+            LOG.info("Training run finished, undeploying.");
+            deployer.undeployVerticles(undeployed -> vertx.close(closed -> System.exit(0)));
         } else {
             this.deployerId = reply.result();
             LOG.info("Application ready.");
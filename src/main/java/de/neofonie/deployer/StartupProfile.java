@@ -0,0 +1,179 @@
+/*
+ The MIT License (MIT)
+
+ Copyright (c) 2015 Neofonie GmbH
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in all
+ copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ SOFTWARE.
+ */
+package de.neofonie.deployer;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.JsonObject;
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The start durations of the verticles observed in previous deployments. The
+ * profile is stored as JSON in the directory configured in "startupProfile".
+ * After every successful deployment the measured durations are merged into
+ * the profile with exponential smoothing:
+ *
+ * <pre>
+ * duration = smoothing * measured + (1 - smoothing) * duration
+ * </pre>
+ *
+ * The durations are used by the {@link DeploymentPlan} to rank the verticles
+ * and to pick an automatic concurrency limit.
+ *
+ * @author jan.decooman@neofonie.de, jonas.muecke@neofonie.de
+ */
+public class StartupProfile {
+
+    private static final Logger LOG = Logger.getLogger(StartupProfile.class.getName());
+
+    protected final static String STARTUP_PROFILE = "startupProfile";
+
+    protected final static String DIRECTORY = "directory";
+
+    protected final static String SMOOTHING = "smoothing";
+
+    protected final static String FILE_NAME = "deployer-profile.json";
+
+    protected final static double DEFAULT_SMOOTHING = 0.5;
+
+    private final String directory;
+
+    private final double smoothing;
+
+    private final JsonObject durations;
+
+    private StartupProfile(final String directory, final double smoothing, final JsonObject durations) {
+        this.directory = directory;
+        this.smoothing = smoothing;
+        this.durations = durations;
+    }
+
+    /**
+     * Load the profile configured in the deployer configuration. When no
+     * profile is configured, the file does not exist or cannot be read, an
+     * empty profile is returned. Invalid settings are ignored here, the
+     * {@link DeploymentPlan} reports them.
+     *
+     * @param vertx The Vertx instance
+     * @param configuration The deployer configuration
+     * @param handler The handler receiving the profile
+     */
+    public static void load(final Vertx vertx, final JsonObject configuration,
+            final Handler<AsyncResult<StartupProfile>> handler) {
+        Object value = configuration.getValue(STARTUP_PROFILE);
+        JsonObject settings = value instanceof JsonObject ? (JsonObject) value : new JsonObject();
+        if (!(settings.getValue(DIRECTORY) instanceof String)) {
+            handler.handle(Future.succeededFuture(new StartupProfile(null, DEFAULT_SMOOTHING, new JsonObject())));
+            return;
+        }
+
+        String directory = settings.getString(DIRECTORY);
+        Object configured = settings.getValue(SMOOTHING);
+        double smoothing = configured instanceof Number
+                && ((Number) configured).doubleValue() > 0 && ((Number) configured).doubleValue() <= 1
+                ? ((Number) configured).doubleValue()
+                : DEFAULT_SMOOTHING;
+        String file = new File(directory, FILE_NAME).getPath();
+        vertx.fileSystem().exists(file, exists -> {
+            if (exists.succeeded() && exists.result()) {
+                vertx.fileSystem().readFile(file, read -> {
+                    JsonObject durations = new JsonObject();
+                    try {
+                        if (read.succeeded()) {
+                            durations = new JsonObject(read.result().toString("UTF-8"));
+                            LOG.log(Level.INFO, "Startup profile loaded from {0}", file);
+                        } else {
+                            LOG.log(Level.WARNING, "Startup profile not readable: {0}", read.cause().getMessage());
+                        }
+                    } catch (DecodeException e) {
+                        LOG.log(Level.WARNING, "Startup profile invalid: {0}", e.getMessage());
+                    }
+                    handler.handle(Future.succeededFuture(new StartupProfile(directory, smoothing, durations)));
+                });
+            } else {
+                handler.handle(Future.succeededFuture(new StartupProfile(directory, smoothing, new JsonObject())));
+            }
+        });
+    }
+
+    /**
+     * @return The smoothed start durations in milliseconds per verticle id
+     */
+    public Map<String, Long> durations() {
+        Map<String, Long> result = new HashMap<>();
+        durations.fieldNames().forEach(id -> result.put(id,
+                Math.max(1L, Math.round(durations.getDouble(id)))));
+        return result;
+    }
+
+    /**
+     * Merge the durations measured in a deployment into the profile.
+     *
+     * @param report The report of the deployment
+     * @param plan The deployed plan
+     */
+    public void update(final DeploymentReport report, final DeploymentPlan plan) {
+        plan.ids().forEach(id -> {
+            long duration = report.duration(id);
+            if (duration > 0) {
+                double measured = duration / 1000000.0;
+                Double previous = durations.getDouble(id);
+                durations.put(id, previous == null
+                        ? measured
+                        : smoothing * measured + (1 - smoothing) * previous);
+            }
+        });
+    }
+
+    /**
+     * Write the profile to its directory. Without a configured directory
+     * nothing is written.
+     *
+     * @param vertx The Vertx instance
+     * @param handler The handler to call when the profile is written
+     */
+    public void save(final Vertx vertx, final Handler<AsyncResult<Void>> handler) {
+        if (directory == null) {
+            handler.handle(Future.succeededFuture());
+            return;
+        }
+
+        String file = new File(directory, FILE_NAME).getPath();
+        vertx.fileSystem().mkdirs(directory, created -> {
+            if (created.failed()) {
+                handler.handle(Future.failedFuture(created.cause()));
+            } else {
+                vertx.fileSystem().writeFile(file, Buffer.buffer(durations.encodePrettily(), "UTF-8"), handler);
+            }
+        });
+    }
+}
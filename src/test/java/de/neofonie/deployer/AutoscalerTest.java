@@ -0,0 +1,216 @@
+/*
+ The MIT License (MIT)
+
+ Copyright (c) 2015 Neofonie GmbH
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in all
+ copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ SOFTWARE.
+ */
+package de.neofonie.deployer;
+
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.RunTestOnContext;
+import java.util.Collections;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import static de.neofonie.deployer.DeployerMock.*;
+
+/**
+ * Test the autoscaling decisions with given samples and the sampling with
+ * synthetic load.
+ *
+ * @author jan.decooman@neofonie.de
+ */
+@RunWith(io.vertx.ext.unit.junit.VertxUnitRunner.class)
+public class AutoscalerTest {
+
+    @Rule
+    public RunTestOnContext rule = new RunTestOnContext();
+
+    /**
+     * The overloaded verticle gets a second instance and keeps it.
+     *
+     * @param context The Vertx context
+     */
+    @Test(timeout = 20000)
+    public void scaleOut(final TestContext context) {
+        DeploymentEngine engine = new DeploymentEngine(rule.vertx(),
+                new DeploymentPlan(readConfiguration("/autoscale.json")));
+        Autoscaler autoscaler = new Autoscaler(rule.vertx(), engine);
+
+        Async async = context.async();
+        engine.deploy(deployed -> {
+            context.assertTrue(deployed.succeeded());
+            // 1.2 event loops busy in both intervals
+            evaluate(autoscaler, "hot", 1.2, 0, 2);
+            settle(context, engine, "hot", 2, () -> {
+                // 0.6 per instance stays between both thresholds
+                evaluate(autoscaler, "hot", 1.2, 0, 4);
+                settle(context, engine, "hot", 2, async::complete);
+            });
+        });
+    }
+
+    /**
+     * The idle verticle shrinks to its minimum, one instance at a time.
+     *
+     * @param context The Vertx context
+     */
+    @Test(timeout = 20000)
+    public void scaleIn(final TestContext context) {
+        DeploymentEngine engine = new DeploymentEngine(rule.vertx(),
+                new DeploymentPlan(readConfiguration("/autoscale-idle.json")));
+        Autoscaler autoscaler = new Autoscaler(rule.vertx(), engine);
+
+        Async async = context.async();
+        engine.deploy(deployed -> {
+            context.assertTrue(deployed.succeeded());
+            evaluate(autoscaler, "idle", 0.2, 0, 2);
+            settle(context, engine, "idle", 2, () -> {
+                evaluate(autoscaler, "idle", 0.2, 0, 3);
+                settle(context, engine, "idle", 1, () -> {
+                    evaluate(autoscaler, "idle", 0.2, 0, 4);
+                    settle(context, engine, "idle", 1, async::complete);
+                });
+            });
+        });
+    }
+
+    /**
+     * A verticle below its target utilisation gets another instance when
+     * tasks keep queueing on its event loop.
+     *
+     * @param context The Vertx context
+     */
+    @Test(timeout = 20000)
+    public void scaleOutOnBacklog(final TestContext context) {
+        JsonObject configuration = readConfiguration("/autoscale.json");
+        configuration.getJsonObject("verticles").getJsonObject("hot").
+                getJsonObject("autoscale").put("maxPending", 10);
+        DeploymentEngine engine = new DeploymentEngine(rule.vertx(), new DeploymentPlan(configuration));
+        Autoscaler autoscaler = new Autoscaler(rule.vertx(), engine);
+
+        Async async = context.async();
+        engine.deploy(deployed -> {
+            context.assertTrue(deployed.succeeded());
+            // half an event loop busy, 20 tasks waiting behind it
+            evaluate(autoscaler, "hot", 0.5, 20, 2);
+            settle(context, engine, "hot", 2, () -> {
+                // 0.45 per instance and 5 tasks waiting stay between both thresholds
+                evaluate(autoscaler, "hot", 0.9, 5, 4);
+                settle(context, engine, "hot", 2, async::complete);
+            });
+        });
+    }
+
+    /**
+     * Event loops without load are not sampled: an idle application takes
+     * no stack samples.
+     *
+     * @param context The Vertx context
+     */
+    @Test(timeout = 20000)
+    public void skipIdleLoops(final TestContext context) {
+        JsonObject configuration = readConfiguration("/autoscale-idle.json");
+        configuration.getJsonObject("verticles").getJsonObject("idle").
+                getJsonObject("config").put("load", 0.0);
+        DeploymentEngine engine = new DeploymentEngine(rule.vertx(), new DeploymentPlan(configuration));
+        Autoscaler autoscaler = new Autoscaler(rule.vertx(), engine);
+
+        Async async = context.async();
+        engine.deploy(deployed -> {
+            context.assertTrue(deployed.succeeded());
+            context.assertTrue(autoscaler.start());
+            rule.vertx().setTimer(5 * engine.plan().autoscaleInterval(), timer -> {
+                autoscaler.stop();
+                // 5 intervals of all event loops would be 100 samples per loop
+                context.assertTrue(autoscaler.stacks() < Autoscaler.SAMPLES, "stack samples: " + autoscaler.stacks());
+                async.complete();
+            });
+        });
+    }
+
+    /**
+     * The sampler sees the load of the overloaded verticle and scales it out.
+     *
+     * @param context The Vertx context
+     */
+    @Test(timeout = 20000)
+    public void sampleLoad(final TestContext context) {
+        DeploymentEngine engine = new DeploymentEngine(rule.vertx(),
+                new DeploymentPlan(readConfiguration("/autoscale.json")));
+        Autoscaler autoscaler = new Autoscaler(rule.vertx(), engine);
+
+        Async async = context.async();
+        engine.deploy(deployed -> {
+            context.assertTrue(deployed.succeeded());
+            context.assertTrue(autoscaler.start());
+            rule.vertx().setPeriodic(50, timer -> {
+                if (engine.instances("hot") > 1) {
+                    rule.vertx().cancelTimer(timer);
+                    autoscaler.stop();
+                    async.complete();
+                }
+            });
+        });
+    }
+
+    /**
+     * Evaluate intervals with {@link Autoscaler#SAMPLES} samples each.
+     *
+     * @param autoscaler The autoscaler
+     * @param id The id of the autoscaled verticle
+     * @param load The busy event loops of the verticle per interval
+     * @param waiting The tasks waiting on the loop in every busy sample
+     * @param intervals The number of intervals
+     */
+    private static void evaluate(final Autoscaler autoscaler, final String id, final double load,
+            final long waiting, final int intervals) {
+        long busy = Math.round(load * Autoscaler.SAMPLES);
+        for (int i = 0; i < intervals; i++) {
+            autoscaler.evaluate(Autoscaler.SAMPLES, Collections.singletonMap(id, busy),
+                    Collections.singletonMap(id, busy * waiting));
+        }
+    }
+
+    /**
+     * Wait until the verticle has the expected instances and check they do
+     * not change anymore.
+     *
+     * @param context The Vertx context
+     * @param engine The engine
+     * @param id The id of the autoscaled verticle
+     * @param expected The expected number of instances
+     * @param next Called once the instances are settled
+     */
+    private void settle(final TestContext context, final DeploymentEngine engine, final String id,
+            final int expected, final Runnable next) {
+        rule.vertx().setPeriodic(10, timer -> {
+            if (engine.instances(id) == expected) {
+                rule.vertx().cancelTimer(timer);
+                rule.vertx().setTimer(100, settled -> {
+                    context.assertEquals(expected, engine.instances(id));
+                    next.run();
+                });
+            }
+        });
+    }
+}
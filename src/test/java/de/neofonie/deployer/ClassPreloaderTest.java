@@ -0,0 +1,48 @@
+/*
+ The MIT License (MIT)
+
+ Copyright (c) 2015 Neofonie GmbH
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in all
+ copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ SOFTWARE.
+ */
+package de.neofonie.deployer;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test the selection of the classes to preload.
+ *
+ * @author jan.decooman@neofonie.de
+ */
+public class ClassPreloaderTest {
+
+    /**
+     * Only compiled Java verticles are preloaded.
+     */
+    @Test
+    public void className() {
+        assertEquals("com.example.Verticle", ClassPreloader.className("com.example.Verticle"));
+        assertEquals("com.example.Verticle", ClassPreloader.className("java:com.example.Verticle"));
+        assertNull(ClassPreloader.className("js:verticle.js"));
+        assertNull(ClassPreloader.className("verticle.groovy"));
+        assertNull(ClassPreloader.className("service:com.example.service"));
+        assertNull(ClassPreloader.className("com/example/Verticle.java"));
+    }
+}
@@ -23,11 +23,22 @@
  */
 package de.neofonie.deployer;
 
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
 import io.vertx.core.json.JsonObject;
 import org.junit.Test;
 import static org.junit.Assert.*;
 import static de.neofonie.deployer.DeployerVerticle.*;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
 import java.net.URL;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.apache.commons.io.IOUtils;
 import org.junit.runner.RunWith;
 import org.mockito.Mockito;
 import org.powermock.api.mockito.PowerMockito;
@@ -87,4 +98,52 @@ public class ConfigLoaderTest {
         JsonObject loadConfiguration = ConfigLoader.loadConfiguration();
         assertNull(loadConfiguration);
     }
+
+    /**
+     * Load the configuration twice from a jar file. The filesystem of the jar
+     * is reused and the second load is served from the cache.
+     *
+     * @throws Exception When the jar cannot be written
+     */
+    @Test
+    public void jarConfiguration() throws Exception {
+        File jar = File.createTempFile("deployer", ".jar");
+        jar.deleteOnExit();
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jar));
+                InputStream in = ConfigLoader.class.getResourceAsStream("/deployer.json")) {
+            out.putNextEntry(new ZipEntry("deployer.json"));
+            IOUtils.copy(in, out);
+            out.closeEntry();
+        }
+        URL url = new URL("jar:" + jar.toURI() + "!/deployer.json");
+
+        PowerMockito.mockStatic(ConfigLoader.class);
+        Mockito.when(ConfigLoader.loadURL()).thenReturn(url);
+        Mockito.when(ConfigLoader.loadConfiguration()).thenCallRealMethod();
+
+        JsonObject first = ConfigLoader.loadConfiguration();
+        JsonObject second = ConfigLoader.loadConfiguration();
+        assertNotNull(first);
+        assertEquals(first, second);
+        assertNotSame(first, second);
+    }
+
+    /**
+     * Load the configuration on a worker thread.
+     *
+     * @throws Exception When the configuration is not loaded in time
+     */
+    @Test
+    public void asyncConfiguration() throws Exception {
+        Vertx vertx = Vertx.vertx();
+        CompletableFuture<AsyncResult<JsonObject>> result = new CompletableFuture<>();
+        try {
+            vertx.runOnContext(v -> ConfigLoader.loadConfiguration(vertx, result::complete));
+            AsyncResult<JsonObject> loaded = result.get(10, TimeUnit.SECONDS);
+            assertTrue(loaded.succeeded());
+            assertNotNull(loaded.result().getJsonObject(VERTICLES));
+        } finally {
+            vertx.close();
+        }
+    }
 }
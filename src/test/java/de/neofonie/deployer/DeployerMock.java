@@ -23,9 +23,13 @@
  */
 package de.neofonie.deployer;
 
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
 import io.vertx.core.json.JsonObject;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.commons.io.IOUtils;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.fail;
@@ -57,6 +61,26 @@ public class DeployerMock {
         return result;
     }
 
+    /**
+     * Init the mock with configurations which are returned one after the
+     * other on every load, no configuration is found afterwards.
+     *
+     * @param configurations The configurations
+     * @return A deployerVerticle loading the configurations
+     */
+    public static DeployerVerticle prepareDeployer(final JsonObject... configurations) {
+        AtomicInteger loads = new AtomicInteger();
+        DeployerVerticle mock = PowerMockito.mock(DeployerVerticle.class, Mockito.CALLS_REAL_METHODS);
+        PowerMockito.doAnswer(invocation -> {
+            @SuppressWarnings("unchecked")
+            Handler<AsyncResult<JsonObject>> handler = invocation.getArgumentAt(0, Handler.class);
+            int load = loads.getAndIncrement();
+            handler.handle(Future.succeededFuture(load < configurations.length ? configurations[load] : null));
+            return null;
+        }).when(mock).loadConfiguration(Mockito.any());
+        return mock;
+    }
+
     /**
      * Init the mock with a custom configFile.
      *
@@ -66,7 +90,12 @@ public class DeployerMock {
     public static DeployerVerticle prepareDeployer(final String configFile) {
         JsonObject configuration = readConfiguration(configFile);
         DeployerVerticle mock = PowerMockito.mock(DeployerVerticle.class, Mockito.CALLS_REAL_METHODS);
-        PowerMockito.when(mock.loadConfiguration()).thenReturn(configuration);
+        PowerMockito.doAnswer(invocation -> {
+            @SuppressWarnings("unchecked")
+            Handler<AsyncResult<JsonObject>> handler = invocation.getArgumentAt(0, Handler.class);
+            handler.handle(Future.succeededFuture(configuration));
+            return null;
+        }).when(mock).loadConfiguration(Mockito.any());
         return mock;
     }
 }
@@ -25,6 +25,7 @@ package de.neofonie.deployer;
 
 import org.junit.Test;
 import io.vertx.core.AsyncResult;
+import io.vertx.core.json.JsonObject;
 import io.vertx.ext.unit.Async;
 import io.vertx.ext.unit.TestContext;
 import io.vertx.ext.unit.junit.RunTestOnContext;
@@ -162,4 +163,60 @@ public class DeployerVerticleTest {
                 });
     }
 
+    /**
+     * Test a diamond shaped deployment. The last verticle declares one of its
+     * dependencies twice and may only start after both branches.
+     *
+     * @param context The Vertx context
+     */
+    @Test
+    public void dependsOnDiamond(final TestContext context) {
+
+        DeployerVerticle mock = prepareDeployer("/depending-diamond.json");
+        TestVerticle3.order.clear();
+
+        Async async = context.async();
+        rule.vertx().deployVerticle(mock,
+                (AsyncResult<String> serverReply) -> {
+                    List<String> ids = TestVerticle3.order;
+                    context.assertTrue(serverReply.succeeded());
+                    context.assertTrue(ids.size() == 4);
+                    context.assertTrue("v1".equals(ids.get(0)));
+                    context.assertTrue("v4".equals(ids.get(3)));
+                    context.assertTrue(mock.deployed.size() == 4);
+                    async.complete();
+                    rule.vertx().close();
+                });
+    }
+
+    /**
+     * A reloaded configuration which fails to deploy is rolled back to the
+     * previous configuration, whose verticles are deployed again.
+     *
+     * @param context The Vertx context
+     */
+    @Test(timeout = 10000)
+    public void failedReload(final TestContext context) {
+
+        JsonObject configuration = readConfiguration("/depending-serial.json").put("reloadInterval", 50);
+        JsonObject broken = configuration.copy();
+        broken.getJsonObject("verticles").getJsonObject("verticle-3").put("name", "de.neofonie.deployer.Missing");
+        DeployerVerticle mock = prepareDeployer(configuration, broken);
+        TestVerticle3.order.clear();
+
+        Async async = context.async();
+        rule.vertx().deployVerticle(mock, (AsyncResult<String> serverReply) -> {
+            context.assertTrue(serverReply.succeeded());
+            rule.vertx().setPeriodic(20, timer -> {
+                if (TestVerticle3.order.stream().filter("v3"::equals).count() >= 2) {
+                    rule.vertx().cancelTimer(timer);
+                    rule.vertx().setTimer(100, settled -> {
+                        context.assertEquals(3, mock.deployed.size());
+                        context.assertTrue(mock.deployed.contains("verticle-3"));
+                        async.complete();
+                    });
+                }
+            });
+        });
+    }
 }
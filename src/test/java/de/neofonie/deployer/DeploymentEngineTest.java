@@ -0,0 +1,641 @@
+/*
+ The MIT License (MIT)
+
+ Copyright (c) 2015 Neofonie GmbH
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in all
+ copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ SOFTWARE.
+ */
+package de.neofonie.deployer;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.RunTestOnContext;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import static de.neofonie.deployer.DeployerMock.*;
+
+/**
+ * Test the deployment engine without the DeployerVerticle.
+ *
+ * @author jan.decooman@neofonie.de
+ */
+@RunWith(io.vertx.ext.unit.junit.VertxUnitRunner.class)
+public class DeploymentEngineTest {
+
+    @Rule
+    public RunTestOnContext rule = new RunTestOnContext();
+
+    /**
+     * Execute a plan directly on the context of the test.
+     *
+     * @param context The Vertx context
+     */
+    @Test
+    public void deployPlan(final TestContext context) {
+
+        DeploymentPlan plan = new DeploymentPlan(readConfiguration("/depending-serial.json"));
+        DeploymentEngine engine = new DeploymentEngine(rule.vertx(), plan);
+        TestVerticle3.order.clear();
+
+        Async async = context.async();
+        engine.deploy(result -> {
+            List<String> ids = result.result();
+            context.assertTrue(result.succeeded());
+            context.assertEquals(3, ids.size());
+            context.assertEquals("verticle-1", ids.get(0));
+            context.assertEquals("verticle-3", ids.get(1));
+            context.assertEquals("verticle-2", ids.get(2));
+            async.complete();
+            rule.vertx().close();
+        });
+    }
+
+    /**
+     * A failing verticle fails the plan.
+     *
+     * @param context The Vertx context
+     */
+    @Test
+    public void failingPlan(final TestContext context) {
+
+        DeploymentPlan plan = new DeploymentPlan(readConfiguration("/simple-wrong.json"));
+        DeploymentEngine engine = new DeploymentEngine(rule.vertx(), plan);
+
+        Async async = context.async();
+        engine.deploy(result -> {
+            context.assertTrue(result.failed());
+            context.assertTrue(result.cause().getMessage().startsWith("verticle-simple"));
+            async.complete();
+            rule.vertx().close();
+        });
+    }
+
+    /**
+     * An invalid plan fails before any verticle is deployed.
+     *
+     * @param context The Vertx context
+     */
+    @Test
+    public void invalidPlan(final TestContext context) {
+
+        DeploymentPlan plan = new DeploymentPlan(readConfiguration("/invalid-graph.json"));
+        DeploymentEngine engine = new DeploymentEngine(rule.vertx(), plan);
+
+        Async async = context.async();
+        engine.deploy(result -> {
+            context.assertTrue(result.failed());
+            context.assertTrue(result.cause().getMessage().contains("Cycle: a -> c -> b -> a"));
+            context.assertTrue(rule.vertx().deploymentIDs().isEmpty());
+            async.complete();
+        });
+    }
+
+    /**
+     * A failure rolls back the deployed verticles, including the verticles
+     * which were in flight, before it is reported.
+     *
+     * @param context The Vertx context
+     */
+    @Test
+    public void rollback(final TestContext context) {
+
+        DeploymentPlan plan = new DeploymentPlan(readConfiguration("/rollback.json"));
+        DeploymentEngine engine = new DeploymentEngine(rule.vertx(), plan);
+
+        Async async = context.async();
+        engine.deploy(result -> {
+            context.assertTrue(result.failed());
+            context.assertTrue(result.cause().getMessage().startsWith("broken"));
+            context.assertTrue(engine.deployed().isEmpty());
+            context.assertEquals(Arrays.asList("f-base"), stopped());
+            context.assertTrue(rule.vertx().deploymentIDs().isEmpty());
+            async.complete();
+        });
+    }
+
+    /**
+     * A flaky verticle is retried, a failing optional verticle does not stop
+     * the deployment.
+     *
+     * @param context The Vertx context
+     */
+    @Test
+    public void retry(final TestContext context) {
+
+        DeploymentPlan plan = new DeploymentPlan(readConfiguration("/retry.json"));
+        DeploymentEngine engine = new DeploymentEngine(rule.vertx(), plan);
+
+        Async async = context.async();
+        engine.deploy(result -> {
+            context.assertTrue(result.succeeded());
+            context.assertEquals(Arrays.asList("flaky", "after"), result.result());
+            context.assertEquals(3, TestVerticle7.attempts.get("t-flaky").get());
+            context.assertEquals(2, TestVerticle7.attempts.get("t-hopeless").get());
+            async.complete();
+        });
+    }
+
+    /**
+     * A dependent of an abandoned optional verticle is deployed again when it
+     * is redeployed on its own.
+     *
+     * @param context The Vertx context
+     */
+    @Test
+    public void redeployAfterAbandoned(final TestContext context) {
+        JsonObject configuration = readConfiguration("/retry.json");
+        JsonObject verticles = configuration.getJsonObject("verticles");
+        verticles.getJsonObject("flaky").getJsonObject("config").put("id", "a-flaky").put("failures", 0);
+        verticles.getJsonObject("hopeless").getJsonObject("config").put("id", "a-hopeless");
+        DeploymentEngine engine = new DeploymentEngine(rule.vertx(), new DeploymentPlan(configuration));
+
+        Async async = context.async();
+        engine.deploy(result -> {
+            context.assertTrue(result.succeeded());
+            context.assertTrue(engine.isAbandoned("hopeless"));
+            engine.redeploy("after", redeployed -> {
+                context.assertTrue(redeployed.succeeded());
+                context.assertEquals(Arrays.asList("after"), redeployed.result());
+                context.assertTrue(engine.isDeployed("after"));
+                context.assertEquals(Arrays.asList("t-after"), stopped());
+                async.complete();
+            });
+        });
+    }
+
+    /**
+     * Stopping the deployer cancels a waiting retry instead of deploying the
+     * verticle later.
+     *
+     * @param context The Vertx context
+     */
+    @Test(timeout = 5000)
+    public void retryCancelled(final TestContext context) {
+
+        DeploymentPlan plan = new DeploymentPlan(readConfiguration("/retry-cancel.json"));
+        DeploymentEngine engine = new DeploymentEngine(rule.vertx(), plan);
+
+        Async async = context.async();
+        engine.deploy(result -> {
+            context.assertTrue(result.failed());
+            context.assertEquals(1, TestVerticle7.attempts.get("c-slow").get());
+            async.complete();
+        });
+        rule.vertx().setPeriodic(10, timer -> {
+            if (TestVerticle7.attempts.containsKey("c-slow")) {
+                rule.vertx().cancelTimer(timer);
+                engine.undeploy(undeployed -> context.assertTrue(undeployed.succeeded()));
+            }
+        });
+    }
+
+    /**
+     * Undeploy the verticles in reverse dependency order.
+     *
+     * @param context The Vertx context
+     */
+    @Test
+    public void undeployPlan(final TestContext context) {
+
+        DeploymentPlan plan = new DeploymentPlan(readConfiguration("/undeploy-serial.json"));
+        DeploymentEngine engine = new DeploymentEngine(rule.vertx(), plan);
+
+        Async async = context.async();
+        engine.deploy(result -> {
+            context.assertTrue(result.succeeded());
+            engine.undeploy(undeployed -> {
+                List<String> ids = stopped();
+                context.assertTrue(undeployed.succeeded());
+                context.assertTrue(engine.deployed().isEmpty());
+                context.assertEquals(3, ids.size());
+                context.assertEquals("u2", ids.get(0));
+                context.assertEquals("u3", ids.get(1));
+                context.assertEquals("u1", ids.get(2));
+                async.complete();
+                rule.vertx().close();
+            });
+        });
+    }
+
+    /**
+     * A verticle which does not stop does not block its dependencies longer
+     * than its stop timeout.
+     *
+     * @param context The Vertx context
+     */
+    @Test
+    public void undeployTimeout(final TestContext context) {
+
+        DeploymentPlan plan = new DeploymentPlan(readConfiguration("/undeploy-timeout.json"));
+        DeploymentEngine engine = new DeploymentEngine(rule.vertx(), plan);
+
+        Async async = context.async();
+        engine.deploy(result -> {
+            context.assertTrue(result.succeeded());
+            long start = System.currentTimeMillis();
+            engine.undeploy(undeployed -> {
+                context.assertTrue(undeployed.succeeded());
+                context.assertTrue(System.currentTimeMillis() - start < 5000);
+                context.assertTrue(stopped().contains("v1"));
+                async.complete();
+                rule.vertx().close();
+            });
+        });
+    }
+
+    /**
+     * The report contains the timing of every verticle and the critical path.
+     *
+     * @param context The Vertx context
+     */
+    @Test
+    public void report(final TestContext context) {
+
+        DeploymentPlan plan = new DeploymentPlan(readConfiguration("/depending-parallel.json"));
+        DeploymentEngine engine = new DeploymentEngine(rule.vertx(), plan);
+
+        Async async = context.async();
+        engine.deploy(result -> {
+            JsonObject report = engine.report().toJson();
+            JsonArray criticalPath = report.getJsonArray("criticalPath");
+            JsonObject verticles = report.getJsonObject("verticles");
+            context.assertEquals(2, criticalPath.size());
+            context.assertEquals("verticle-3", criticalPath.getString(1));
+            context.assertEquals(3, verticles.size());
+            verticles.fieldNames().forEach(id -> {
+                JsonObject verticle = verticles.getJsonObject(id);
+                context.assertTrue(verticle.getLong("slack") >= 0);
+                context.assertTrue(verticle.getLong("completed") >= verticle.getLong("started"));
+            });
+            async.complete();
+            rule.vertx().close();
+        });
+    }
+
+    /**
+     * The weights of the running deployments never exceed the limit. A
+     * verticle heavier than the limit is deployed alone.
+     *
+     * @param context The Vertx context
+     */
+    @Test
+    public void boundedConcurrency(final TestContext context) {
+
+        DeploymentPlan plan = new DeploymentPlan(readConfiguration("/concurrency.json"));
+        DeploymentEngine engine = new DeploymentEngine(rule.vertx(), plan);
+
+        Async async = context.async();
+        engine.deploy(result -> {
+            context.assertTrue(result.succeeded());
+            JsonObject verticles = engine.report().toJson().getJsonObject("verticles");
+            context.assertEquals(4, verticles.size());
+            verticles.fieldNames().forEach(id -> {
+                JsonObject verticle = verticles.getJsonObject(id);
+                int weight = plan.weight(id);
+                for (String other : verticles.fieldNames()) {
+                    JsonObject running = verticles.getJsonObject(other);
+                    if (!other.equals(id)
+                            && running.getLong("started") < verticle.getLong("started")
+                            && running.getLong("completed") > verticle.getLong("started")) {
+                        weight += plan.weight(other);
+                    }
+                }
+                context.assertTrue(weight <= 2 || weight == plan.weight(id));
+            });
+            async.complete();
+            rule.vertx().close();
+        });
+    }
+
+    /**
+     * The verticles with the longest chain of dependents are started first.
+     *
+     * @param context The Vertx context
+     */
+    @Test
+    public void priorityOrder(final TestContext context) {
+
+        DeploymentPlan plan = new DeploymentPlan(readConfiguration("/priority.json"));
+        DeploymentEngine engine = new DeploymentEngine(rule.vertx(), plan);
+        TestVerticle3.order.clear();
+
+        Async async = context.async();
+        engine.deploy(result -> {
+            List<String> ids = TestVerticle3.order;
+            context.assertTrue(result.succeeded());
+            context.assertEquals("slow", ids.get(0));
+            context.assertEquals("head", ids.get(1));
+            context.assertEquals("middle", ids.get(2));
+            context.assertEquals(5, ids.size());
+            async.complete();
+            rule.vertx().close();
+        });
+    }
+
+    /**
+     * Only the changed verticle and its dependents are redeployed.
+     *
+     * @param context The Vertx context
+     */
+    @Test
+    public void redeployChanges(final TestContext context) {
+
+        JsonObject configuration = readConfiguration("/redeploy-serial.json");
+        DeploymentEngine engine = new DeploymentEngine(rule.vertx(), new DeploymentPlan(configuration));
+
+        JsonObject changed = configuration.copy();
+        changed.getJsonObject("verticles").getJsonObject("verticle-3").
+                getJsonObject("config").put("field3", "changed");
+
+        Async async = context.async();
+        engine.deploy(result -> {
+            TestVerticle3.order.clear();
+            engine.redeploy(new DeploymentPlan(changed), redeployed -> {
+                context.assertTrue(redeployed.succeeded());
+                context.assertEquals(2, redeployed.result().size());
+                context.assertEquals(Arrays.asList("r2", "r3"), stopped());
+                context.assertEquals("r3", TestVerticle3.order.get(0));
+                context.assertEquals("r2", TestVerticle3.order.get(1));
+                context.assertEquals(3, engine.deployed().size());
+                async.complete();
+                rule.vertx().close();
+            });
+        });
+    }
+
+    /**
+     * Dependents with a quorum are deployed while the remaining instances of
+     * their dependency are still starting.
+     *
+     * @param context The Vertx context
+     */
+    @Test
+    public void quorum(final TestContext context) {
+        DeploymentPlan plan = new DeploymentPlan(readConfiguration("/quorum.json"));
+        DeploymentEngine engine = new DeploymentEngine(rule.vertx(), plan);
+        TestVerticle3.order.clear();
+
+        Async async = context.async();
+        engine.deploy(result -> {
+            List<String> order = TestVerticle3.order.stream().
+                    filter(id -> id.startsWith("q")).
+                    collect(Collectors.toList());
+            context.assertTrue(result.succeeded());
+            context.assertEquals(4, result.result().size());
+            context.assertEquals(7, order.size());
+            context.assertEquals("q-wide-1", order.get(0));
+            context.assertEquals("q-one", order.get(1));
+            context.assertEquals("q-wide-2", order.get(2));
+            context.assertEquals("q-half", order.get(3));
+            context.assertEquals("q-wide-4", order.get(5));
+            context.assertEquals("q-all", order.get(6));
+            context.assertTrue(engine.report().toJson().getJsonArray("criticalPath").contains("all"));
+            async.complete();
+        });
+    }
+
+    /**
+     * The class of a waiting verticle is initialized on a worker thread.
+     *
+     * @param context The Vertx context
+     */
+    @Test(timeout = 10000)
+    public void preloadClasses(final TestContext context) {
+        DeploymentPlan plan = new DeploymentPlan(readConfiguration("/preload.json"));
+        DeploymentEngine engine = new DeploymentEngine(rule.vertx(), plan);
+
+        Async async = context.async();
+        engine.deploy(result -> {
+            context.assertTrue(result.succeeded());
+            context.assertTrue(TestVerticle8.INITIALIZED_ON.startsWith("vert.x-worker-thread"));
+            async.complete();
+        });
+    }
+
+    /**
+     * The trace contains a span per instance and a flow per dependency.
+     *
+     * @param context The Vertx context
+     */
+    @Test
+    public void trace(final TestContext context) {
+        JsonObject configuration = readConfiguration("/quorum.json");
+        configuration.getJsonObject("verticles").getJsonObject("wide").
+                getJsonObject("config").put("id", "t-wide");
+        DeploymentEngine engine = new DeploymentEngine(rule.vertx(), new DeploymentPlan(configuration));
+
+        Async async = context.async();
+        engine.deploy(result -> {
+            context.assertTrue(result.succeeded());
+            JsonArray events = engine.report().toTrace().getJsonArray("traceEvents");
+            List<String> spans = new ArrayList<>();
+            Map<Long, Long> flows = new HashMap<>();
+            for (int i = 0; i < events.size(); i++) {
+                JsonObject event = events.getJsonObject(i);
+                if ("X".equals(event.getString("ph")) && "start".equals(event.getString("cat"))) {
+                    spans.add(event.getString("name"));
+                } else if ("s".equals(event.getString("ph"))) {
+                    flows.put(event.getLong("id"), event.getLong("ts"));
+                } else if ("f".equals(event.getString("ph"))) {
+                    context.assertTrue(flows.get(event.getLong("id")) <= event.getLong("ts"));
+                }
+            }
+            context.assertEquals(7, spans.size());
+            context.assertTrue(spans.containsAll(Arrays.asList("wide #1", "wide #4", "one", "half", "all")));
+            context.assertEquals(3, flows.size());
+            async.complete();
+        });
+    }
+
+    /**
+     * A verticle which blocks its event loop while it starts is charged
+     * with the blocked time.
+     *
+     * @param context The Vertx context
+     */
+    @Test
+    public void eventLoopBlocked(final TestContext context) {
+        DeploymentEngine engine = new DeploymentEngine(rule.vertx(),
+                new DeploymentPlan(readConfiguration("/blocking.json")));
+
+        Async async = context.async();
+        engine.deploy(result -> {
+            context.assertTrue(result.succeeded());
+            JsonObject report = engine.report().toJson();
+            JsonObject verticles = report.getJsonObject("verticles");
+            long blocking = verticles.getJsonObject("blocking").getLong("eventLoopBlocked");
+            context.assertTrue(blocking >= TimeUnit.MILLISECONDS.toNanos(200), "blocked " + blocking);
+            context.assertTrue(verticles.getJsonObject("polite").getLong("eventLoopBlocked") < blocking);
+            context.assertTrue(report.getLong("eventLoopBlocked") >= blocking);
+            async.complete();
+        });
+    }
+
+    /**
+     * A redeployment requested during a run waits for the run instead of
+     * being rejected.
+     *
+     * @param context The Vertx context
+     */
+    @Test
+    public void redeployWaits(final TestContext context) {
+
+        JsonObject configuration = readConfiguration("/redeploy-serial.json");
+        DeploymentEngine engine = new DeploymentEngine(rule.vertx(), new DeploymentPlan(configuration));
+
+        JsonObject changed = configuration.copy();
+        changed.getJsonObject("verticles").getJsonObject("verticle-3").
+                getJsonObject("config").put("field3", "changed");
+
+        Async async = context.async();
+        engine.deploy(result -> context.assertTrue(result.succeeded()));
+        engine.redeploy(new DeploymentPlan(changed), redeployed -> {
+            context.assertTrue(redeployed.succeeded());
+            context.assertEquals(2, redeployed.result().size());
+            context.assertEquals(Arrays.asList("r2", "r3"), stopped());
+            context.assertEquals(3, engine.deployed().size());
+            async.complete();
+        });
+    }
+
+    /**
+     * A changed verticle with rolling settings is replaced instance by
+     * instance; it never runs with fewer instances and its dependent keeps
+     * running.
+     *
+     * @param context The Vertx context
+     */
+    @Test
+    public void rollingRedeploy(final TestContext context) {
+        JsonObject configuration = readConfiguration("/rolling.json");
+        DeploymentEngine engine = new DeploymentEngine(rule.vertx(), new DeploymentPlan(configuration));
+
+        Async async = context.async();
+        engine.deploy(deployed -> {
+            context.assertTrue(deployed.succeeded());
+            List<String> old = engine.deploymentIds("service");
+            List<String> client = engine.deploymentIds("client");
+            int[] minimum = {engine.instances("service")};
+            long timer = rule.vertx().setPeriodic(1, tick
+                    -> minimum[0] = Math.min(minimum[0], engine.instances("service")));
+
+            JsonObject changed = configuration.copy();
+            changed.getJsonObject("verticles").getJsonObject("service").
+                    getJsonObject("config").put("version", 2);
+            engine.redeploy(new DeploymentPlan(changed), redeployed -> {
+                rule.vertx().cancelTimer(timer);
+                context.assertTrue(redeployed.succeeded());
+                context.assertEquals(Arrays.asList("service"), redeployed.result());
+                context.assertEquals(3, minimum[0]);
+                context.assertEquals(3, engine.instances("service"));
+                context.assertEquals(3, engine.deploymentIds("service").size());
+                context.assertFalse(engine.deploymentIds("service").stream().anyMatch(old::contains));
+                context.assertEquals(client, engine.deploymentIds("client"));
+                context.assertEquals(Arrays.asList("w-service", "w-service", "w-service"), stopped());
+                async.complete();
+            });
+        });
+    }
+
+    /**
+     * A rolling verticle whose instances changed is scaled without replacing
+     * its running instances; a change of its rolling settings restarts
+     * nothing.
+     *
+     * @param context The Vertx context
+     */
+    @Test
+    public void rollingInstances(final TestContext context) {
+        JsonObject configuration = readConfiguration("/rolling.json");
+        DeploymentEngine engine = new DeploymentEngine(rule.vertx(), new DeploymentPlan(configuration));
+
+        Async async = context.async();
+        engine.deploy(deployed -> {
+            context.assertTrue(deployed.succeeded());
+            List<String> old = engine.deploymentIds("service");
+
+            JsonObject scaled = configuration.copy();
+            scaled.getJsonObject("verticles").getJsonObject("service").put("instances", 5);
+            engine.redeploy(new DeploymentPlan(scaled), redeployed -> {
+                context.assertTrue(redeployed.succeeded());
+                context.assertEquals(Arrays.asList("service"), redeployed.result());
+                context.assertEquals(5, engine.instances("service"));
+                context.assertTrue(engine.deploymentIds("service").containsAll(old));
+
+                JsonObject paused = scaled.copy();
+                paused.getJsonObject("verticles").getJsonObject("service").
+                        getJsonObject("rolling").put("pause", 100);
+                engine.redeploy(new DeploymentPlan(paused), unchanged -> {
+                    context.assertTrue(unchanged.succeeded());
+                    context.assertTrue(unchanged.result().isEmpty());
+                    context.assertEquals(5, engine.instances("service"));
+                    context.assertTrue(stopped().isEmpty());
+                    async.complete();
+                });
+            });
+        });
+    }
+
+    /**
+     * A rollout of a changed configuration deploys the instances of the new
+     * configuration.
+     *
+     * @param context The Vertx context
+     */
+    @Test
+    public void rollingToFewerInstances(final TestContext context) {
+        JsonObject configuration = readConfiguration("/rolling.json");
+        DeploymentEngine engine = new DeploymentEngine(rule.vertx(), new DeploymentPlan(configuration));
+
+        Async async = context.async();
+        engine.deploy(deployed -> {
+            context.assertTrue(deployed.succeeded());
+            List<String> old = engine.deploymentIds("service");
+
+            JsonObject changed = configuration.copy();
+            JsonObject service = changed.getJsonObject("verticles").getJsonObject("service");
+            service.put("instances", 2);
+            service.getJsonObject("config").put("version", 2);
+            engine.redeploy(new DeploymentPlan(changed), redeployed -> {
+                context.assertTrue(redeployed.succeeded());
+                context.assertEquals(2, engine.instances("service"));
+                context.assertFalse(engine.deploymentIds("service").stream().anyMatch(old::contains));
+                context.assertEquals(Arrays.asList("w-service", "w-service", "w-service"), stopped());
+                async.complete();
+            });
+        });
+    }
+
+    /**
+     * @return The ids of the verticles of this test in the order they stopped
+     */
+    private List<String> stopped() {
+        return TestVerticle3.stopped(rule.vertx());
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ The MIT License (MIT)
+
+ Copyright (c) 2015 Neofonie GmbH
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in all
+ copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ SOFTWARE.
+ */
+package de.neofonie.deployer;
+
+import io.vertx.core.json.JsonObject;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static de.neofonie.deployer.DeployerMock.*;
+
+/**
+ * Test the compilation of the configuration into a plan.
+ *
+ * @author jan.decooman@neofonie.de
+ */
+public class DeploymentPlanTest {
+
+    /**
+     * The priority is the longest weighted chain of dependents.
+     */
+    @Test
+    public void priority() {
+        DeploymentPlan plan = new DeploymentPlan(readConfiguration("/priority.json"));
+
+        assertEquals(1, plan.priority("leaf"));
+        assertEquals(500, plan.priority("slow"));
+        assertEquals(3, plan.priority("head"));
+        assertEquals(2, plan.priority("middle"));
+        assertEquals(1, plan.priority("tail"));
+    }
+
+    /**
+     * Measured durations take precedence over the declared durations and
+     * determine the automatic concurrency limit.
+     */
+    @Test
+    public void measuredDurations() {
+        JsonObject configuration = readConfiguration("/priority.json");
+        configuration.put(DeploymentPlan.MAX_CONCURRENT_DEPLOYMENTS, DeploymentPlan.AUTO);
+        Map<String, Long> durations = new HashMap<>();
+        durations.put("slow", 10L);
+        durations.put("tail", 100L);
+
+        DeploymentPlan plan = new DeploymentPlan(configuration, durations);
+
+        assertEquals(10, plan.priority("slow"));
+        assertEquals(102, plan.priority("head"));
+        assertEquals(2, plan.maxConcurrentDeployments());
+    }
+
+    /**
+     * A changed verticle is redeployed with its dependents. A change of the
+     * global configuration changes every verticle.
+     */
+    @Test
+    public void changedSince() {
+        JsonObject configuration = readConfiguration("/depending-serial.json");
+        DeploymentPlan previous = new DeploymentPlan(configuration);
+
+        JsonObject next = configuration.copy();
+        next.getJsonObject("verticles").getJsonObject("verticle-3").
+                getJsonObject("config").put("field3", "changed");
+        DeploymentPlan plan = new DeploymentPlan(next);
+
+        assertEquals(1, plan.changedSince(previous).size());
+        assertTrue(plan.withDependents(plan.changedSince(previous)).contains("verticle-2"));
+        assertEquals(2, plan.withDependents(plan.changedSince(previous)).size());
+
+        next.getJsonObject("config").put("field2", 200);
+        next.getJsonObject("verticles").remove("verticle-1");
+        plan = new DeploymentPlan(next);
+
+        assertEquals(3, plan.changedSince(previous).size());
+        assertTrue(plan.changedSince(previous).contains("verticle-1"));
+    }
+
+    /**
+     * The configuration of a verticle overrides nested keys of the global
+     * configuration and shares the subtrees it does not override.
+     */
+    @Test
+    public void layeredConfig() {
+        JsonObject configuration = readConfiguration("/layered-config.json");
+        DeploymentPlan plan = new DeploymentPlan(configuration);
+
+        JsonObject config = plan.config("override");
+        assertEquals("override", config.getString("id"));
+        assertEquals(9090, (int) config.getJsonObject("http").getInteger("port"));
+        assertEquals("localhost", config.getJsonObject("http").getString("host"));
+        assertSame(configuration.getJsonObject("config").getJsonObject("lookup").getMap(),
+                config.getJsonObject("lookup").getMap());
+        assertSame(config, plan.config("override"));
+
+        assertEquals(configuration.getJsonObject("config"), plan.config("plain"));
+        assertEquals(8080, (int) configuration.getJsonObject("config").
+                getJsonObject("http").getInteger("port"));
+    }
+
+    /**
+     * A lazy verticle is deployed at startup when an eager verticle depends
+     * on it.
+     */
+    @Test
+    public void lazy() {
+        DeploymentPlan plan = new DeploymentPlan(readConfiguration("/lazy.json"));
+
+        assertTrue(plan.lazy("echo"));
+        assertTrue(plan.lazy("helper"));
+        assertFalse(plan.lazy("forced"));
+        assertFalse(plan.lazy("base"));
+        assertEquals("lazy.echo", plan.address("echo"));
+        assertEquals(3, plan.withDependencies(Collections.singleton("echo")).size());
+    }
+
+    /**
+     * A quorum is a number or a percentage of the instances of the
+     * dependency.
+     */
+    @Test
+    public void quorum() {
+        DeploymentPlan plan = new DeploymentPlan(readConfiguration("/quorum.json"));
+
+        assertEquals(1, plan.quorum("one", "wide"));
+        assertEquals(2, plan.quorum("half", "wide"));
+        assertEquals(4, plan.quorum("all", "wide"));
+        assertEquals(Arrays.asList("wide"), plan.dependencies("one"));
+        assertTrue(plan.deployInstancesIndividually("wide"));
+        assertFalse(plan.deployInstancesIndividually("one"));
+    }
+
+    /**
+     * The retry delay grows exponentially within the jitter and the maximum
+     * delay.
+     */
+    @Test
+    public void retryDelay() {
+        JsonObject configuration = readConfiguration("/retry.json");
+        configuration.getJsonObject("verticles").getJsonObject("flaky").
+                getJsonObject("retry").put("maxDelay", 30);
+        DeploymentPlan plan = new DeploymentPlan(configuration);
+
+        assertEquals(3, plan.maxAttempts("flaky"));
+        assertEquals(1, plan.maxAttempts("after"));
+        for (int i = 0; i < 100; i++) {
+            long first = plan.retryDelay("flaky", 1);
+            assertTrue(first >= 5 && first <= 15);
+            long second = plan.retryDelay("flaky", 2);
+            assertTrue(second >= 10 && second <= 30);
+            assertTrue(plan.retryDelay("flaky", 10) <= 30);
+            long optional = plan.retryDelay("hopeless", 2);
+            assertTrue(optional >= 16 && optional <= 24);
+        }
+    }
+
+    /**
+     * The validation reports the cycle with its path, unknown dependencies,
+     * duplicates and verticles which are never deployed.
+     */
+    @Test
+    public void validate() {
+        List<String> problems = DeploymentPlan.validate(readConfiguration("/invalid-graph.json"));
+
+        assertEquals(4, problems.size());
+        assertTrue(problems.contains("'d' depends on unknown 'missing'"));
+        assertTrue(problems.contains("'e' repeats the name and configuration of 'd'"));
+        assertTrue(problems.contains("Cycle: a -> c -> b -> a"));
+        assertTrue(problems.contains("Lazy 'f' has no address and no lazy dependent, it is never deployed"));
+        assertTrue(DeploymentPlan.validate(readConfiguration("/depending-diamond.json")).isEmpty());
+    }
+
+    /**
+     * Values of the wrong type or out of range are reported as problems
+     * instead of failing the compilation of the plan.
+     */
+    @Test
+    public void validateTypes() {
+        JsonObject configuration = readConfiguration("/invalid-types.json");
+        List<String> problems = DeploymentPlan.validate(configuration);
+
+        assertEquals(9, problems.size());
+        assertTrue(problems.contains("The configuration has an invalid \"maxConcurrentDeployments\": 4"));
+        assertTrue(problems.contains("The configuration has an invalid \"stopTimeout\": 5s"));
+        assertTrue(problems.contains("'a' has an invalid \"dependsOn\": b"));
+        assertTrue(problems.contains("'a' has an invalid \"weight\": heavy"));
+        assertTrue(problems.contains("'b' has an invalid dependency: 1"));
+        assertTrue(problems.contains("'b' has an invalid \"weight\": 0"));
+        assertTrue(problems.contains("'b' has an invalid \"retry.delay\": 1s"));
+        assertTrue(problems.contains("'c' is not an object: de.neofonie.deployer.TestVerticle3"));
+        assertTrue(problems.contains("The configuration has an invalid \"startupProfile.smoothing\": fast"));
+
+        configuration.getJsonObject("startupProfile").put("smoothing", 1.5);
+        assertTrue(DeploymentPlan.validate(configuration).
+                contains("The configuration has an invalid \"startupProfile.smoothing\": 1.5"));
+        configuration.put("startupProfile", "target/profile");
+        assertTrue(DeploymentPlan.validate(configuration).
+                contains("The configuration has an invalid \"startupProfile\": target/profile"));
+    }
+
+    /**
+     * The autoscale settings have defaults and are validated.
+     */
+    @Test
+    public void autoscale() {
+        JsonObject configuration = readConfiguration("/autoscale.json");
+        DeploymentPlan plan = new DeploymentPlan(configuration);
+        assertTrue(plan.autoscaled("hot"));
+        assertEquals(1, plan.minInstances("hot"));
+        assertEquals(3, plan.maxInstances("hot"));
+        assertEquals(200, plan.autoscaleInterval());
+
+        configuration.getJsonObject("verticles").getJsonObject("hot").
+                put("worker", true).
+                getJsonObject("autoscale").put("min", 4).put("target", 1.5);
+        List<String> problems = DeploymentPlan.validate(configuration);
+        assertEquals(3, problems.size());
+        assertTrue(problems.contains("'hot' has invalid autoscale bounds: 4..3"));
+    }
+}
\ No newline at end of file
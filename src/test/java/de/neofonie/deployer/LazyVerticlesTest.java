@@ -0,0 +1,84 @@
+/*
+ The MIT License (MIT)
+
+ Copyright (c) 2015 Neofonie GmbH
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in all
+ copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ SOFTWARE.
+ */
+package de.neofonie.deployer;
+
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.RunTestOnContext;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import static de.neofonie.deployer.DeployerMock.*;
+
+/**
+ * Test the deployment of lazy verticles on the first message.
+ *
+ * @author jan.decooman@neofonie.de
+ */
+@RunWith(io.vertx.ext.unit.junit.VertxUnitRunner.class)
+public class LazyVerticlesTest {
+
+    @Rule
+    public RunTestOnContext rule = new RunTestOnContext();
+
+    /**
+     * The lazy verticle and its lazy dependency are deployed by the first
+     * message, both buffered messages are answered by the real verticle.
+     *
+     * @param context The Vertx context
+     */
+    @Test
+    public void deployOnFirstMessage(final TestContext context) {
+        DeploymentPlan plan = new DeploymentPlan(readConfiguration("/lazy.json"));
+        DeploymentEngine engine = new DeploymentEngine(rule.vertx(), plan);
+        List<String> onDemand = new ArrayList<>();
+        LazyVerticles lazyVerticles = new LazyVerticles(rule.vertx(), engine, onDemand::addAll);
+
+        Async first = context.async();
+        Async second = context.async();
+        engine.deploy(result -> {
+            context.assertTrue(result.succeeded());
+            context.assertEquals(3, result.result().size());
+            context.assertFalse(engine.deployed().contains("echo"));
+            context.assertFalse(engine.deployed().contains("helper"));
+
+            lazyVerticles.register();
+            context.assertEquals(1, lazyVerticles.waiting().size());
+
+            for (Async async : new Async[]{first, second}) {
+                String body = async == first ? "first" : "second";
+                rule.vertx().eventBus().<String>send("lazy.echo", body, reply -> {
+                    context.assertTrue(reply.succeeded());
+                    context.assertEquals("echo:" + body, reply.result().body());
+                    context.assertEquals(2, onDemand.size());
+                    context.assertTrue(engine.deployed().contains("helper"));
+                    context.assertTrue(lazyVerticles.waiting().isEmpty());
+                    async.complete();
+                });
+            }
+        });
+    }
+}
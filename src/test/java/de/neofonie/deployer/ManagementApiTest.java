@@ -0,0 +1,129 @@
+/*
+ The MIT License (MIT)
+
+ Copyright (c) 2015 Neofonie GmbH
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in all
+ copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ SOFTWARE.
+ */
+package de.neofonie.deployer;
+
+import io.vertx.core.eventbus.EventBus;
+import io.vertx.core.eventbus.ReplyException;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.RunTestOnContext;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import static de.neofonie.deployer.DeployerMock.*;
+
+/**
+ * Test the runtime management of the deployed verticles.
+ *
+ * @author jan.decooman@neofonie.de
+ */
+@RunWith(io.vertx.ext.unit.junit.VertxUnitRunner.class)
+public class ManagementApiTest {
+
+    private static final String ADDRESS = "test.management";
+
+    @Rule
+    public RunTestOnContext rule = new RunTestOnContext();
+
+    /**
+     * Scale a verticle out and in, redeploy and undeploy it with its
+     * dependent.
+     *
+     * @param context The Vertx context
+     */
+    @Test
+    public void manage(final TestContext context) {
+        DeploymentEngine engine = new DeploymentEngine(rule.vertx(),
+                new DeploymentPlan(readConfiguration("/management.json")));
+        List<List<String>> changes = new ArrayList<>();
+        new ManagementApi(rule.vertx(), ADDRESS, engine, changes::add);
+        EventBus eventBus = rule.vertx().eventBus();
+
+        Async async = context.async();
+        engine.deploy(deployed -> {
+            context.assertTrue(deployed.succeeded());
+            eventBus.<JsonObject>send(ADDRESS, request("scale", "web").put("instances", 5), out -> {
+                context.assertTrue(out.succeeded());
+                context.assertEquals(5, out.result().body().getInteger("instances"));
+                context.assertEquals(2, engine.deploymentIds("web").size());
+
+                eventBus.<JsonObject>send(ADDRESS, request("scale", "web").put("instances", 1), in -> {
+                    context.assertTrue(in.succeeded());
+                    context.assertEquals(1, engine.instances("web"));
+                    context.assertEquals(1, engine.deploymentIds("web").size());
+
+                    eventBus.<JsonObject>send(ADDRESS, request("redeploy", "store"), redeployed -> {
+                        context.assertTrue(redeployed.succeeded());
+                        context.assertEquals(2, redeployed.result().body().getJsonArray("redeployed").size());
+                        context.assertEquals(2, engine.instances("web"));
+
+                        eventBus.<JsonObject>send(ADDRESS, request("undeploy", "store"), undeployed -> {
+                            context.assertTrue(undeployed.succeeded());
+                            context.assertTrue(engine.deployed().isEmpty());
+                            context.assertEquals(4, changes.size());
+
+                            eventBus.<JsonObject>send(ADDRESS, request("list", null), listed -> {
+                                JsonObject web = listed.result().body().getJsonObject("verticles").getJsonObject("web");
+                                context.assertFalse(web.getBoolean("deployed"));
+                                context.assertEquals(0, web.getInteger("instances"));
+                                async.complete();
+                            });
+                        });
+                    });
+                });
+            });
+        });
+    }
+
+    /**
+     * Invalid requests and requests the engine refuses fail.
+     *
+     * @param context The Vertx context
+     */
+    @Test
+    public void refuse(final TestContext context) {
+        DeploymentEngine engine = new DeploymentEngine(rule.vertx(),
+                new DeploymentPlan(readConfiguration("/management.json")));
+        new ManagementApi(rule.vertx(), ADDRESS, engine, ids -> context.fail());
+        EventBus eventBus = rule.vertx().eventBus();
+
+        Async unknown = context.async();
+        eventBus.send(ADDRESS, request("scale", "missing").put("instances", 2), reply -> {
+            context.assertEquals(ManagementApi.BAD_REQUEST, ((ReplyException) reply.cause()).failureCode());
+            unknown.complete();
+        });
+        Async notDeployed = context.async();
+        eventBus.send(ADDRESS, request("undeploy", "store"), reply -> {
+            context.assertEquals(ManagementApi.REFUSED, ((ReplyException) reply.cause()).failureCode());
+            notDeployed.complete();
+        });
+    }
+
+    private static JsonObject request(final String action, final String id) {
+        return new JsonObject().put("action", action).put("id", id);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,87 @@
+/*
+ The MIT License (MIT)
+
+ Copyright (c) 2015 Neofonie GmbH
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in all
+ copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ SOFTWARE.
+ */
+package de.neofonie.deployer;
+
+import io.vertx.core.json.JsonObject;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static de.neofonie.deployer.DeployerMock.*;
+
+/**
+ * Test the selection of the verticles by profile.
+ *
+ * @author jan.decooman@neofonie.de
+ */
+public class ProfilesTest {
+
+    /**
+     * A profile selects its verticles and their transitive dependencies.
+     */
+    @Test
+    public void prune() {
+        JsonObject configuration = readConfiguration("/profiles.json");
+
+        assertEquals(new LinkedHashSet<>(Arrays.asList("api", "db")),
+                Profiles.prune(configuration, Collections.singleton("api")).
+                getJsonObject("verticles").fieldNames());
+        assertEquals(new LinkedHashSet<>(Arrays.asList("importer", "scheduler", "queue", "db")),
+                Profiles.prune(configuration, Profiles.parse("importer, scheduler")).
+                getJsonObject("verticles").fieldNames());
+        assertTrue(Profiles.prune(configuration, Collections.singleton("unknown")).
+                getJsonObject("verticles").isEmpty());
+        assertSame(configuration, Profiles.prune(configuration, Collections.emptySet()));
+        assertEquals(5, configuration.getJsonObject("verticles").size());
+    }
+
+    /**
+     * An active profile without a verticle is a problem of the configuration.
+     */
+    @Test
+    public void validate() {
+        JsonObject configuration = readConfiguration("/profiles.json");
+
+        assertTrue(Profiles.validate(configuration, Profiles.parse("api, scheduler")).isEmpty());
+        assertTrue(Profiles.validate(configuration, Collections.emptySet()).isEmpty());
+        assertEquals(Arrays.asList("No verticle has the active profile 'importr'"),
+                Profiles.validate(configuration, Profiles.parse("api, importr")));
+        assertEquals(Arrays.asList("No verticle has the active profile 'unknown'"),
+                Profiles.validate(configuration, Collections.singleton("unknown")));
+    }
+
+    /**
+     * The system property sets the active profiles.
+     */
+    @Test
+    public void active() {
+        System.setProperty(Profiles.PROPERTY, "api,,importer ");
+        try {
+            assertEquals(new LinkedHashSet<>(Arrays.asList("api", "importer")), Profiles.active());
+        } finally {
+            System.clearProperty(Profiles.PROPERTY);
+        }
+    }
+}
\ No newline at end of file
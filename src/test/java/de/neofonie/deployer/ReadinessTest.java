@@ -0,0 +1,116 @@
+/*
+ The MIT License (MIT)
+
+ Copyright (c) 2015 Neofonie GmbH
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in all
+ copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ SOFTWARE.
+ */
+package de.neofonie.deployer;
+
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.RunTestOnContext;
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import static de.neofonie.deployer.DeployerMock.*;
+
+/**
+ * Test the readiness once the critical verticles are deployed.
+ *
+ * @author jan.decooman@neofonie.de
+ */
+@RunWith(io.vertx.ext.unit.junit.VertxUnitRunner.class)
+public class ReadinessTest {
+
+    private static final String ADDRESS = "test.progress";
+
+    @Rule
+    public RunTestOnContext rule = new RunTestOnContext();
+
+    /**
+     * The application is ready while the slow verticle is still starting, the
+     * endpoint answers 503 before and 200 afterwards.
+     *
+     * @param context The Vertx context
+     * @throws IOException When no free port or temporary file is available
+     */
+    @Test
+    public void criticalVerticles(final TestContext context) throws IOException {
+        File readyFile = File.createTempFile("deployer", ".ready");
+        readyFile.delete();
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        JsonObject configuration = readConfiguration("/critical.json").
+                put("readyFile", readyFile.getPath()).
+                put("readinessPort", port);
+        DeploymentEngine engine = new DeploymentEngine(rule.vertx(), new DeploymentPlan(configuration));
+        Readiness readiness = new Readiness(rule.vertx(), engine, ADDRESS);
+
+        JsonObject initial = readiness.progress();
+        context.assertEquals(3, initial.getInteger("pending"));
+        context.assertEquals(2, initial.getInteger("criticalPending"));
+        context.assertTrue(initial.getLong("eta") >= 300);
+
+        Async ready = context.async();
+        Async done = context.async();
+        boolean[] checked = {false};
+        rule.vertx().eventBus().<JsonObject>consumer(ADDRESS, message -> {
+            JsonObject progress = message.body();
+            if (progress.getBoolean("ready") && !engine.isDeployed("importer") && !checked[0]) {
+                checked[0] = true;
+                context.assertEquals(0, progress.getInteger("criticalPending"));
+                context.assertEquals(1, progress.getInteger("pending"));
+                context.assertFalse(progress.containsKey("eta"));
+                context.assertTrue(readiness.progress().getLong("eta") > 0);
+                get(context, port, Readiness.READY, ready::complete);
+            }
+        });
+
+        readiness.start(listening -> {
+            context.assertTrue(listening.succeeded());
+            get(context, port, Readiness.NOT_READY, () -> engine.deploy(deployed -> {
+                context.assertTrue(deployed.succeeded());
+                context.assertTrue(readiness.isReady());
+                rule.vertx().setTimer(100, timer -> {
+                    context.assertTrue(readyFile.exists());
+                    readiness.notReady();
+                    rule.vertx().setTimer(100, deleted -> {
+                        context.assertFalse(readyFile.exists());
+                        readiness.close();
+                        done.complete();
+                    });
+                });
+            }));
+        });
+    }
+
+    private void get(final TestContext context, final int port, final int status, final Runnable next) {
+        rule.vertx().createHttpClient().getNow(port, "localhost", "/", response -> {
+            context.assertEquals(status, response.statusCode());
+            next.run();
+        });
+    }
+}
\ No newline at end of file
@@ -0,0 +1,106 @@
+/*
+ The MIT License (MIT)
+
+ Copyright (c) 2015 Neofonie GmbH
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in all
+ copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ SOFTWARE.
+ */
+package de.neofonie.deployer;
+
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.RunTestOnContext;
+import java.io.File;
+import java.nio.file.Files;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import static de.neofonie.deployer.DeployerMock.*;
+
+/**
+ * Test the persisted startup profile.
+ *
+ * @author jan.decooman@neofonie.de
+ */
+@RunWith(io.vertx.ext.unit.junit.VertxUnitRunner.class)
+public class StartupProfileTest {
+
+    @Rule
+    public RunTestOnContext rule = new RunTestOnContext();
+
+    /**
+     * The durations of a deployment are available on the next load.
+     *
+     * @param context The Vertx context
+     * @throws Exception When the temporary directory cannot be created
+     */
+    @Test
+    public void saveAndLoad(final TestContext context) throws Exception {
+
+        File directory = Files.createTempDirectory("profile").toFile();
+        JsonObject configuration = readConfiguration("/depending-serial.json");
+        configuration.put(StartupProfile.STARTUP_PROFILE,
+                new JsonObject().put(StartupProfile.DIRECTORY, directory.getPath()));
+        DeploymentPlan plan = new DeploymentPlan(configuration);
+        DeploymentEngine engine = new DeploymentEngine(rule.vertx(), plan);
+
+        Async async = context.async();
+        StartupProfile.load(rule.vertx(), configuration, loaded -> {
+            StartupProfile profile = loaded.result();
+            context.assertTrue(profile.durations().isEmpty());
+            engine.deploy(result -> {
+                profile.update(engine.report(), plan);
+                profile.save(rule.vertx(), saved -> {
+                    context.assertTrue(saved.succeeded());
+                    StartupProfile.load(rule.vertx(), configuration, reloaded -> {
+                        context.assertEquals(3, reloaded.result().durations().size());
+                        context.assertTrue(reloaded.result().durations().get("verticle-1") >= 1);
+                        async.complete();
+                        rule.vertx().close();
+                    });
+                });
+            });
+        });
+    }
+
+    /**
+     * Invalid settings do not break the load, the plan reports them.
+     *
+     * @param context The Vertx context
+     */
+    @Test
+    public void invalidSettings(final TestContext context) {
+        JsonObject configuration = readConfiguration("/depending-serial.json");
+        configuration.put(StartupProfile.STARTUP_PROFILE, new JsonObject().
+                put(StartupProfile.DIRECTORY, "target/no-profile").
+                put(StartupProfile.SMOOTHING, "fast"));
+
+        Async async = context.async();
+        StartupProfile.load(rule.vertx(), configuration, loaded -> {
+            context.assertTrue(loaded.succeeded());
+            configuration.put(StartupProfile.STARTUP_PROFILE, "target/no-profile");
+            StartupProfile.load(rule.vertx(), configuration, reloaded -> {
+                context.assertTrue(reloaded.succeeded());
+                context.assertTrue(reloaded.result().durations().isEmpty());
+                async.complete();
+            });
+        });
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ The MIT License (MIT)
+
+ Copyright (c) 2015 Neofonie GmbH
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in all
+ copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ SOFTWARE.
+ */
+package de.neofonie.deployer;
+
+import io.vertx.core.AbstractVerticle;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Verticle producing synthetic load. All running instances with the same
+ * "id" share a "load" given as a fraction of one event loop, so every
+ * instance keeps its loop busy for load / instances of the time.
+ *
+ * @author jan.decooman@neofonie.de
+ */
+public class TestVerticle10 extends AbstractVerticle {
+
+    private static final long PERIOD = 20;
+
+    static Map<String, AtomicInteger> running = new ConcurrentHashMap<>();
+
+    private AtomicInteger instances;
+
+    @Override
+    public void start() throws Exception {
+        instances = running.computeIfAbsent(config().getString("id"), id -> new AtomicInteger());
+        instances.incrementAndGet();
+        vertx.setPeriodic(PERIOD, timer -> work());
+    }
+
+    @Override
+    public void stop() throws Exception {
+        instances.decrementAndGet();
+    }
+
+    private void work() {
+        double share = config().getDouble("load") / Math.max(1, instances.get());
+        long end = System.nanoTime() + (long) (share * TimeUnit.MILLISECONDS.toNanos(PERIOD));
+        while (System.nanoTime() < end) {
+            Thread.yield();
+        }
+    }
+}
\ No newline at end of file
@@ -25,8 +25,13 @@ package de.neofonie.deployer;
 
 import io.vertx.core.AbstractVerticle;
 import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
 
 /**
  * Simple Verticle
@@ -35,7 +40,9 @@ import java.util.List;
  */
 public class TestVerticle3 extends AbstractVerticle {
 
-    static List<String> order = new LinkedList<>();
+    static List<String> order = Collections.synchronizedList(new LinkedList<>());
+
+    private static final Map<Vertx, List<String>> stopped = Collections.synchronizedMap(new WeakHashMap<>());
     
     @Override
     public void start(Future<Void> startFuture) throws Exception {
@@ -43,6 +50,27 @@ public class TestVerticle3 extends AbstractVerticle {
         order.add(name);
         startFuture.complete();
     }
+
+    @Override
+    public void stop(Future<Void> stopFuture) throws Exception {
+        stopped.computeIfAbsent(vertx, key -> Collections.synchronizedList(new LinkedList<>())).
+                add(context.config().getString("id"));
+        stopFuture.complete();
+    }
+
+    /**
+     * The verticles of earlier tests may still be stopping while the next
+     * test runs, so the stopped verticles are kept per Vertx instance.
+     *
+     * @param vertx The Vertx instance of the test
+     * @return The ids of the verticles in the order they stopped
+     */
+    static List<String> stopped(final Vertx vertx) {
+        List<String> ids = stopped.getOrDefault(vertx, Collections.emptyList());
+        synchronized (ids) {
+            return new ArrayList<>(ids);
+        }
+    }
     
     
 }
@@ -0,0 +1,66 @@
+/*
+ The MIT License (MIT)
+
+ Copyright (c) 2015 Neofonie GmbH
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in all
+ copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ SOFTWARE.
+ */
+package de.neofonie.deployer;
+
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.Future;
+import io.vertx.core.json.JsonObject;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Verticle whose instances take longer to start the later they are
+ * deployed, counted per "id". An instance listed in "after" additionally
+ * waits until the given id and the previous instance have started.
+ *
+ * @author jan.decooman@neofonie.de
+ */
+public class TestVerticle6 extends AbstractVerticle {
+
+    static Map<String, AtomicInteger> instances = new ConcurrentHashMap<>();
+
+    @Override
+    public void start(Future<Void> startFuture) throws Exception {
+        String id = context.config().getString("id");
+        int instance = instances.computeIfAbsent(id, key -> new AtomicInteger()).incrementAndGet();
+        String after = context.config().getJsonObject("after", new JsonObject()).
+                getString(String.valueOf(instance));
+        vertx.setTimer(instance * 50, timer -> {
+            if (after == null) {
+                TestVerticle3.order.add(id + "-" + instance);
+                startFuture.complete();
+                return;
+            }
+            vertx.setPeriodic(10, poll -> {
+                if (TestVerticle3.order.contains(after)
+                        && (instance == 1 || TestVerticle3.order.contains(id + "-" + (instance - 1)))) {
+                    vertx.cancelTimer(poll);
+                    TestVerticle3.order.add(id + "-" + instance);
+                    startFuture.complete();
+                }
+            });
+        });
+    }
+}